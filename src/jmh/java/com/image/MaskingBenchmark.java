@@ -0,0 +1,51 @@
+package com.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.video.SyntheticVideo;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MaskingBenchmark {
+
+	@Param({ "100", "500" })
+	public int regionSize;
+
+	@Param({ "BLUR", "GAUSSIAN", "PIXELATE", "SOLID" })
+	public MaskingEngine.MaskMode mode;
+
+	private BufferedImage image;
+	private Rectangle region;
+	private MaskingEngine engine;
+
+	@Setup
+	public void setUp() {
+		image = SyntheticVideo.image(1920, 1080, 0);
+		region = new Rectangle(800, 400, regionSize, regionSize);
+		engine = new MaskingEngine(mode);
+	}
+
+	@Benchmark
+	public BufferedImage blurSelection() {
+		engine.apply(image, region);
+		return image;
+	}
+}
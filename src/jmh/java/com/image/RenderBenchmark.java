@@ -0,0 +1,76 @@
+package com.image;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.video.SyntheticVideo;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RenderBenchmark {
+
+	@Param({ "0.25", "0.5", "1.1" })
+	public double scaleFactor;
+
+	private BufferedImage image;
+	private RenderCache renderCache;
+	private BufferedImage canvas;
+	private Graphics2D graphics;
+	private File outputFile;
+
+	@Setup
+	public void setUp() throws IOException {
+		image = SyntheticVideo.image(1920, 1080, 0);
+		renderCache = new RenderCache();
+		canvas = new BufferedImage((int) (1920 * scaleFactor), (int) (1080 * scaleFactor), BufferedImage.TYPE_INT_RGB);
+		graphics = canvas.createGraphics();
+		outputFile = File.createTempFile("jmh_frame", ".jpg");
+	}
+
+	@TearDown
+	public void tearDown() {
+		graphics.dispose();
+		outputFile.delete();
+	}
+
+	// A repaint of an unchanged frame, e.g. while dragging a selection
+	@Benchmark
+	public BufferedImage paintScaled() {
+		renderCache.paint(graphics, image, scaleFactor);
+		return canvas;
+	}
+
+	// A repaint after navigation, zoom or masking, which has to rescale the frame
+	@Benchmark
+	public BufferedImage paintRescaled() {
+		renderCache.invalidate(image);
+		renderCache.paint(graphics, image, scaleFactor);
+		return canvas;
+	}
+
+	@Benchmark
+	public File saveImage() throws IOException {
+		SaveQueue.writeJpeg(image, outputFile);
+		return outputFile;
+	}
+}
@@ -0,0 +1,81 @@
+package com.video;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExtractionBenchmark {
+
+	private static final int VIDEO_FRAMES = 150;
+	private static final int FRAMES_PER_MINUTE = 120;
+
+	@Param({ "1280x720", "1920x1080" })
+	public String resolution;
+
+	private File video;
+	private Mat frame;
+	private BufferedImage reusedImage;
+
+	@Setup
+	public void setUp() {
+		NativeLoader.ensureLoaded();
+		String[] size = resolution.split("x");
+		int width = Integer.parseInt(size[0]);
+		int height = Integer.parseInt(size[1]);
+		video = SyntheticVideo.write(width, height, VIDEO_FRAMES, 30.0);
+		frame = SyntheticVideo.frame(width, height, 0);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		frame.release();
+		String name = video.getName();
+		FileUtils.deleteDirectory(new File(name.substring(0, name.lastIndexOf('.'))));
+		FileUtils.deleteQuietly(video);
+	}
+
+	@Benchmark
+	public List<BufferedImage> extractFrames() {
+		return VideoFrameExtractor.extractFrames(video.getPath(), FRAMES_PER_MINUTE);
+	}
+
+	// Baseline for the segmented decode above
+	@Benchmark
+	public List<BufferedImage> extractFramesSingleSegment() {
+		return VideoFrameExtractor.extractFrames(video.getPath(), FrameSampler.framesPerMinute(FRAMES_PER_MINUTE), 1);
+	}
+
+	@Benchmark
+	public BufferedImage matToBufferedImage() {
+		return MatConverter.toBufferedImage(frame);
+	}
+
+	@Benchmark
+	public BufferedImage matToBufferedImageReused() {
+		reusedImage = MatConverter.toBufferedImage(frame, reusedImage);
+		return reusedImage;
+	}
+}
@@ -0,0 +1,69 @@
+package com.video;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoWriter;
+
+/**
+ * Generates benchmark input locally, so the benchmarks need no sample footage.
+ */
+public final class SyntheticVideo {
+
+	private SyntheticVideo() {
+	}
+
+	// Writes an MJPG video to the working directory; extraction creates its metadata folder next to it
+	public static File write(int width, int height, int frames, double fps) {
+		File file = new File("jmh_synthetic_" + width + "x" + height + ".avi").getAbsoluteFile();
+		VideoWriter writer = new VideoWriter(file.getPath(), VideoWriter.fourcc('M', 'J', 'P', 'G'), fps,
+				new Size(width, height));
+		if (!writer.isOpened()) {
+			throw new IllegalStateException("Could not open video writer for " + file);
+		}
+		Mat frame = new Mat(height, width, CvType.CV_8UC3);
+		byte[] data = new byte[width * height * 3];
+		try {
+			for (int i = 0; i < frames; i++) {
+				fill(data, width, height, i);
+				frame.put(0, 0, data);
+				writer.write(frame);
+			}
+		} finally {
+			frame.release();
+			writer.release();
+		}
+		return file;
+	}
+
+	public static Mat frame(int width, int height, int index) {
+		byte[] data = new byte[width * height * 3];
+		fill(data, width, height, index);
+		Mat frame = new Mat(height, width, CvType.CV_8UC3);
+		frame.put(0, 0, data);
+		return frame;
+	}
+
+	public static BufferedImage image(int width, int height, int index) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		fill(((DataBufferByte) image.getRaster().getDataBuffer()).getData(), width, height, index);
+		return image;
+	}
+
+	// Moving diagonal gradient with a texture, so the codec and the blur both have real work to do
+	private static void fill(byte[] data, int width, int height, int index) {
+		int i = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int texture = ((x * 7) ^ (y * 13)) & 0x1F;
+				data[i++] = (byte) (x + index * 4 + texture);
+				data[i++] = (byte) (y + index * 2);
+				data[i++] = (byte) (x + y - index * 3 + texture);
+			}
+		}
+	}
+}
@@ -0,0 +1,386 @@
+package com.annotation;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of every change to an {@link AnnotationStore} plus the masks applied to frames, so a session
+ * survives a crash and is restored when the video is opened again. Records are buffered and written by a
+ * background thread in batches, one write and one fsync per batch. Each record carries a CRC; a torn record
+ * at the end of the file after a crash is dropped on load. Once the log holds many more records than the
+ * session has boxes and masks, it is compacted into one record per live box and mask.
+ */
+public class AnnotationJournal implements AnnotationStore.Listener, AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(AnnotationJournal.class);
+
+	private static final int MAGIC = 0x414E4A4C; // "ANJL"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte ADD = 1;
+	private static final byte REMOVE = 2;
+	private static final byte UNDO = 3;
+	private static final byte CLEAR = 4;
+	private static final byte MASK = 5;
+
+	// Changes reach the disk at most this long after they are made
+	static final long GROUP_COMMIT_MILLIS = 50;
+	private static final int MIN_RECORDS_BEFORE_COMPACTION = 10_000;
+
+	/** A mask applied to a frame; masks are replayed onto the decoded frame when it is shown again. */
+	public static final class Mask {
+		public final int frame;
+		public final Rectangle region;
+		public final String mode;
+		public final int strength;
+		public final int fillRgb;
+
+		public Mask(int frame, Rectangle region, String mode, int strength, int fillRgb) {
+			this.frame = frame;
+			this.region = new Rectangle(region);
+			this.mode = mode;
+			this.strength = strength;
+			this.fillRgb = fillRgb;
+		}
+	}
+
+	private final File file;
+	private final AnnotationStore store;
+	private final List<Mask> masks = new ArrayList<>();
+	private final Object writeLock = new Object();
+	private final ScheduledExecutorService flusher;
+	private FileChannel channel;
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(128);
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+	private int recordsInFile;
+	private boolean closed;
+
+	private AnnotationJournal(File file, AnnotationStore store) throws IOException {
+		this.file = file;
+		this.store = store;
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		long validEnd = replay();
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		if (validEnd < HEADER_SIZE) {
+			channel.truncate(0);
+			writeFully(channel, header(), 0);
+			validEnd = HEADER_SIZE;
+		} else if (channel.size() > validEnd) {
+			logger.warn("Dropped " + (channel.size() - validEnd) + " bytes of an incomplete journal record.");
+			channel.truncate(validEnd);
+		}
+		channel.position(validEnd);
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "annotation-journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::flushQuietly, GROUP_COMMIT_MILLIS, GROUP_COMMIT_MILLIS,
+				TimeUnit.MILLISECONDS);
+		store.setListener(this);
+	}
+
+	// Restores the store from the journal, then records every further change to it
+	public static AnnotationJournal open(File file, AnnotationStore store) throws IOException {
+		long start = System.nanoTime();
+		AnnotationJournal journal = new AnnotationJournal(file, store);
+		logger.info(String.format("Restored %d boxes and %d masks from %s in %.1f ms.", store.totalCount(),
+				journal.masks.size(), file.getName(), (System.nanoTime() - start) / 1e6));
+		return journal;
+	}
+
+	public synchronized List<Mask> getMasks() {
+		return Collections.unmodifiableList(new ArrayList<>(masks));
+	}
+
+	public synchronized void recordMask(int frame, Rectangle region, String mode, int strength, int fillRgb) {
+		Mask mask = new Mask(frame, region, mode, strength, fillRgb);
+		masks.add(mask);
+		append(MASK, out -> writeMask(out, mask));
+	}
+
+	@Override
+	public synchronized void added(int frame, int index) {
+		append(ADD, out -> writeBox(out, frame, index));
+	}
+
+	@Override
+	public synchronized void removed(int frame, int index) {
+		append(REMOVE, out -> {
+			out.writeInt(frame);
+			out.writeInt(index);
+		});
+	}
+
+	@Override
+	public synchronized void undone(int frame) {
+		append(UNDO, out -> out.writeInt(frame));
+	}
+
+	@Override
+	public synchronized void cleared(int frame) {
+		append(CLEAR, out -> out.writeInt(frame));
+	}
+
+	private interface Payload {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	// Encodes one record into the pending batch: length, type and payload, CRC of type and payload
+	private void append(byte type, Payload payload) {
+		if (closed) {
+			return;
+		}
+		try {
+			encode(type, payload, pending);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not encode journal record", e);
+		}
+		recordsInFile++;
+	}
+
+	private void encode(byte type, Payload payload, ByteArrayOutputStream target) throws IOException {
+		record.reset();
+		recordOut.writeByte(type);
+		payload.write(recordOut);
+		crc.reset();
+		crc.update(record.toByteArray(), 0, record.size());
+		DataOutputStream out = new DataOutputStream(target);
+		out.writeInt(record.size());
+		record.writeTo(out);
+		out.writeInt((int) crc.getValue());
+	}
+
+	private void writeBox(DataOutputStream out, int frame, int index) throws IOException {
+		Rectangle box = store.getBox(frame, index);
+		out.writeInt(frame);
+		out.writeInt(box.x);
+		out.writeInt(box.y);
+		out.writeInt(box.width);
+		out.writeInt(box.height);
+		out.writeByte(store.getCategory(frame, index).ordinal());
+		out.writeByte(store.getConfidence(frame, index).ordinal());
+		out.writeByte(store.getQuality(frame, index).ordinal());
+		out.writeUTF(store.getAzimuth(frame, index));
+		out.writeUTF(store.getAngle(frame, index));
+		out.writeUTF(store.getPosition(frame, index));
+		out.writeUTF(store.getHeight(frame, index));
+	}
+
+	private static void writeMask(DataOutputStream out, Mask mask) throws IOException {
+		out.writeInt(mask.frame);
+		out.writeInt(mask.region.x);
+		out.writeInt(mask.region.y);
+		out.writeInt(mask.region.width);
+		out.writeInt(mask.region.height);
+		out.writeUTF(mask.mode);
+		out.writeInt(mask.strength);
+		out.writeInt(mask.fillRgb);
+	}
+
+	// Writes everything recorded so far with a single write and fsync
+	public void flush() throws IOException {
+		synchronized (writeLock) {
+			byte[] batch;
+			synchronized (this) {
+				if (pending.size() == 0 || channel == null) {
+					return;
+				}
+				batch = pending.toByteArray();
+				pending.reset();
+			}
+			writeFully(channel, ByteBuffer.wrap(batch), channel.position());
+			channel.position(channel.position() + batch.length);
+			channel.force(false);
+		}
+		if (needsCompaction()) {
+			compact();
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException | RuntimeException e) {
+			logger.error("Could not write the annotation journal " + file.getName(), e);
+		}
+	}
+
+	// The store is read before this journal is locked, in the same lock order as changes to the store
+	private boolean needsCompaction() {
+		int boxes = store.totalCount();
+		synchronized (this) {
+			return recordsInFile > Math.max(MIN_RECORDS_BEFORE_COMPACTION, (boxes + masks.size()) * 2);
+		}
+	}
+
+	// Rewrites the journal as one record per live box and mask. The store stays locked meanwhile, so no change
+	// can slip in between the snapshot and the swap of the files.
+	void compact() throws IOException {
+		synchronized (store) {
+			synchronized (writeLock) {
+				synchronized (this) {
+					if (closed) {
+						return;
+					}
+					long start = System.nanoTime();
+					ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+					snapshot.write(header().array());
+					int records = 0;
+					for (int frame : store.annotatedFrames()) {
+						for (int index = 0; index < store.count(frame); index++) {
+							int boxFrame = frame, boxIndex = index;
+							encode(ADD, out -> writeBox(out, boxFrame, boxIndex), snapshot);
+							records++;
+						}
+					}
+					for (Mask mask : masks) {
+						encode(MASK, out -> writeMask(out, mask), snapshot);
+						records++;
+					}
+					File tempFile = new File(file.getPath() + ".tmp");
+					try (FileChannel out = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+							StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+						writeFully(out, ByteBuffer.wrap(snapshot.toByteArray()), 0);
+						out.force(false);
+					}
+					channel.close();
+					Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+					channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+					channel.position(channel.size());
+					// Changes recorded before the snapshot are part of it now
+					pending = new ByteArrayOutputStream();
+					logger.info(String.format("Compacted %s from %d to %d records in %.1f ms.", file.getName(),
+							recordsInFile, records, (System.nanoTime() - start) / 1e6));
+					recordsInFile = records;
+				}
+			}
+		}
+	}
+
+	// Reads the journal into the store; returns the end of the last intact record
+	private long replay() throws IOException {
+		if (!file.isFile()) {
+			return 0;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			logger.warn("Ignoring unreadable annotation journal " + file.getName());
+			return 0;
+		}
+		CRC32 check = new CRC32();
+		while (buffer.remaining() >= 4) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining() - 4) {
+				return start;
+			}
+			byte[] body = new byte[length];
+			buffer.get(body);
+			check.reset();
+			check.update(body);
+			if ((int) check.getValue() != buffer.getInt()) {
+				return start;
+			}
+			try {
+				apply(new DataInputStream(new ByteArrayInputStream(body)));
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Skipping journal record at " + start + ": " + e);
+			}
+			recordsInFile++;
+		}
+		return buffer.position();
+	}
+
+	private void apply(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		int frame = in.readInt();
+		switch (type) {
+		case ADD:
+			Rectangle box = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+			store.add(frame, box, AnnotationStore.Category.values()[in.readByte()],
+					AnnotationStore.Confidence.values()[in.readByte()], AnnotationStore.Quality.values()[in.readByte()],
+					in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+			break;
+		case REMOVE:
+			store.remove(frame, in.readInt());
+			break;
+		case UNDO:
+			store.undo(frame);
+			break;
+		case CLEAR:
+			store.clear(frame);
+			break;
+		case MASK:
+			Rectangle region = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+			masks.add(new Mask(frame, region, in.readUTF(), in.readInt(), in.readInt()));
+			break;
+		default:
+			throw new IOException("Unknown journal record type " + type);
+		}
+	}
+
+	private static ByteBuffer header() {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION);
+		header.flip();
+		return header;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	// Writes what is still pending; later changes to the store are no longer recorded
+	@Override
+	public void close() {
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(5, TimeUnit.SECONDS);
+			flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.error("Could not write the annotation journal " + file.getName(), e);
+		}
+		synchronized (store) {
+			store.setListener(null);
+		}
+		synchronized (writeLock) {
+			synchronized (this) {
+				closed = true;
+				try {
+					channel.close();
+				} catch (IOException e) {
+					logger.warn("Could not close the annotation journal: " + e.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package com.annotation;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounding box annotations of every frame in a session. Each frame keeps its boxes in columns: coordinates in
+ * an int array, category, confidence and quality as byte codes, and the sensor fields as ids into a shared
+ * string table. A box costs about 35 bytes, so 100k boxes stay in the single-digit megabytes.
+ * Boxes are addressed by frame index and their position within the frame, in the order they were added.
+ * Area queries and hit tests go through a {@link GridIndex} per frame.
+ */
+public class AnnotationStore {
+
+	public enum Category {
+		PEDESTRIAN("pedestrian", Color.RED), CONSTRUCTION_VEHICLE("construction vehicle", Color.BLUE),
+		PILE("pile", Color.GREEN), BUCKET("bucket", Color.ORANGE), FORK("fork", Color.ORANGE),
+		STONE("stone", Color.YELLOW), TRUCK("truck", Color.MAGENTA), CAR("car", Color.CYAN);
+
+		private final String label;
+		private final Color color;
+
+		Category(String label, Color color) {
+			this.label = label;
+			this.color = color;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		public Color getColor() {
+			return color;
+		}
+
+		public static Category fromLabel(String label) {
+			for (Category category : values()) {
+				if (category.label.equals(label)) {
+					return category;
+				}
+			}
+			throw new IllegalArgumentException("Unknown category: " + label);
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	public enum Confidence {
+		HIGH("High"), MEDIUM("Medium"), LOW("Low");
+
+		private final String displayName;
+
+		Confidence(String displayName) {
+			this.displayName = displayName;
+		}
+
+		@Override
+		public String toString() {
+			return displayName;
+		}
+	}
+
+	public enum Quality {
+		CLEAR("Clear"), BLUR("Blur");
+
+		private final String displayName;
+
+		Quality(String displayName) {
+			this.displayName = displayName;
+		}
+
+		@Override
+		public String toString() {
+			return displayName;
+		}
+	}
+
+	// Called while the store is locked, right after each change
+	public interface Listener {
+		void added(int frame, int index);
+
+		void removed(int frame, int index);
+
+		void undone(int frame);
+
+		void cleared(int frame);
+	}
+
+	private static final Category[] CATEGORIES = Category.values();
+	private static final Confidence[] CONFIDENCES = Confidence.values();
+	private static final Quality[] QUALITIES = Quality.values();
+
+	// Column strides
+	private static final int COORDS = 4;
+	private static final int CODES = 3;
+	private static final int SENSORS = 4;
+
+	private final Map<Integer, FrameColumns> frames = new HashMap<>();
+	private final List<String> strings = new ArrayList<>();
+	private final Map<String, Integer> stringIds = new HashMap<>();
+	private int totalCount;
+	private Listener listener;
+
+	public synchronized void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	// Returns the position of the new box within its frame
+	public synchronized int add(int frame, Rectangle box, Category category, Confidence confidence,
+			Quality quality, String azimuth, String angle, String position, String height) {
+		FrameColumns columns = frames.computeIfAbsent(frame, key -> new FrameColumns());
+		int index = columns.count;
+		columns.ensureCapacity(index + 1);
+		int c = index * COORDS;
+		columns.coords[c] = box.x;
+		columns.coords[c + 1] = box.y;
+		columns.coords[c + 2] = box.width;
+		columns.coords[c + 3] = box.height;
+		int b = index * CODES;
+		columns.codes[b] = (byte) category.ordinal();
+		columns.codes[b + 1] = (byte) confidence.ordinal();
+		columns.codes[b + 2] = (byte) quality.ordinal();
+		int s = index * SENSORS;
+		columns.sensors[s] = intern(azimuth);
+		columns.sensors[s + 1] = intern(angle);
+		columns.sensors[s + 2] = intern(position);
+		columns.sensors[s + 3] = intern(height);
+		columns.count++;
+		columns.index = null;
+		totalCount++;
+		if (listener != null) {
+			listener.added(frame, index);
+		}
+		return index;
+	}
+
+	public synchronized int count(int frame) {
+		FrameColumns columns = frames.get(frame);
+		return columns != null ? columns.count : 0;
+	}
+
+	public synchronized int totalCount() {
+		return totalCount;
+	}
+
+	// Frames that have at least one box, in ascending order
+	public synchronized int[] annotatedFrames() {
+		return frames.entrySet().stream().filter(entry -> entry.getValue().count > 0)
+				.mapToInt(Map.Entry::getKey).sorted().toArray();
+	}
+
+	// Copies the box into the given rectangle, so painting loops need not allocate
+	public synchronized Rectangle getBox(int frame, int index, Rectangle into) {
+		int[] coords = columns(frame, index).coords;
+		int c = index * COORDS;
+		into.setBounds(coords[c], coords[c + 1], coords[c + 2], coords[c + 3]);
+		return into;
+	}
+
+	public Rectangle getBox(int frame, int index) {
+		return getBox(frame, index, new Rectangle());
+	}
+
+	public synchronized Category getCategory(int frame, int index) {
+		return CATEGORIES[columns(frame, index).codes[index * CODES]];
+	}
+
+	public synchronized Confidence getConfidence(int frame, int index) {
+		return CONFIDENCES[columns(frame, index).codes[index * CODES + 1]];
+	}
+
+	public synchronized Quality getQuality(int frame, int index) {
+		return QUALITIES[columns(frame, index).codes[index * CODES + 2]];
+	}
+
+	public synchronized String getAzimuth(int frame, int index) {
+		return sensor(frame, index, 0);
+	}
+
+	public synchronized String getAngle(int frame, int index) {
+		return sensor(frame, index, 1);
+	}
+
+	public synchronized String getPosition(int frame, int index) {
+		return sensor(frame, index, 2);
+	}
+
+	public synchronized String getHeight(int frame, int index) {
+		return sensor(frame, index, 3);
+	}
+
+	// Removes the box added last on the frame; returns false when the frame has none
+	public synchronized boolean undo(int frame) {
+		FrameColumns columns = frames.get(frame);
+		if (columns == null || columns.count == 0) {
+			return false;
+		}
+		columns.count--;
+		columns.index = null;
+		totalCount--;
+		if (listener != null) {
+			listener.undone(frame);
+		}
+		return true;
+	}
+
+	public synchronized void remove(int frame, int index) {
+		FrameColumns columns = columns(frame, index);
+		int moved = columns.count - index - 1;
+		System.arraycopy(columns.coords, (index + 1) * COORDS, columns.coords, index * COORDS, moved * COORDS);
+		System.arraycopy(columns.codes, (index + 1) * CODES, columns.codes, index * CODES, moved * CODES);
+		System.arraycopy(columns.sensors, (index + 1) * SENSORS, columns.sensors, index * SENSORS, moved * SENSORS);
+		columns.count--;
+		columns.index = null;
+		totalCount--;
+		if (listener != null) {
+			listener.removed(frame, index);
+		}
+	}
+
+	/** Copy of the boxes of one frame, for readers on other threads such as exporters. */
+	public static final class FrameSnapshot {
+		public final int frame;
+		public final int count;
+		// x, y, width, height per box
+		public final int[] coords;
+		public final Category[] categories;
+		public final Quality[] qualities;
+
+		FrameSnapshot(int frame, int count, int[] coords, Category[] categories, Quality[] qualities) {
+			this.frame = frame;
+			this.count = count;
+			this.coords = coords;
+			this.categories = categories;
+			this.qualities = qualities;
+		}
+	}
+
+	public synchronized FrameSnapshot snapshot(int frame) {
+		FrameColumns columns = frames.get(frame);
+		int count = columns != null ? columns.count : 0;
+		Category[] categories = new Category[count];
+		Quality[] qualities = new Quality[count];
+		for (int i = 0; i < count; i++) {
+			categories[i] = CATEGORIES[columns.codes[i * CODES]];
+			qualities[i] = QUALITIES[columns.codes[i * CODES + 2]];
+		}
+		int[] coords = count > 0 ? Arrays.copyOf(columns.coords, count * COORDS) : new int[0];
+		return new FrameSnapshot(frame, count, coords, categories, qualities);
+	}
+
+	// Boxes of the frame that intersect the area (image coordinates), in the order they were added
+	public synchronized int[] query(int frame, Rectangle area) {
+		FrameColumns columns = frames.get(frame);
+		return columns != null ? columns.index().query(area) : new int[0];
+	}
+
+	// The top-most box of the frame containing the point, or -1
+	public synchronized int hitTest(int frame, int x, int y) {
+		FrameColumns columns = frames.get(frame);
+		return columns != null ? columns.index().hitTest(x, y) : -1;
+	}
+
+	public synchronized void clear(int frame) {
+		FrameColumns columns = frames.remove(frame);
+		if (columns != null) {
+			totalCount -= columns.count;
+			if (listener != null) {
+				listener.cleared(frame);
+			}
+		}
+	}
+
+	private FrameColumns columns(int frame, int index) {
+		FrameColumns columns = frames.get(frame);
+		if (columns == null || index < 0 || index >= columns.count) {
+			throw new IndexOutOfBoundsException("Box " + index + " of frame " + frame);
+		}
+		return columns;
+	}
+
+	private String sensor(int frame, int index, int field) {
+		return strings.get(columns(frame, index).sensors[index * SENSORS + field]);
+	}
+
+	// Sensor fields repeat across nearly every box of a video, so each distinct value is stored once
+	private int intern(String value) {
+		String key = value != null ? value : "";
+		Integer id = stringIds.get(key);
+		if (id == null) {
+			id = strings.size();
+			strings.add(key);
+			stringIds.put(key, id);
+		}
+		return id;
+	}
+
+	private static final class FrameColumns {
+		int count;
+		int[] coords = new int[0];
+		byte[] codes = new byte[0];
+		int[] sensors = new int[0];
+		// Built on the first query after a change
+		GridIndex index;
+
+		GridIndex index() {
+			if (index == null) {
+				index = new GridIndex(coords, count);
+			}
+			return index;
+		}
+
+		void ensureCapacity(int boxes) {
+			if (boxes * COORDS <= coords.length) {
+				return;
+			}
+			int capacity = Math.max(4, Math.max(boxes, coords.length / COORDS * 2));
+			coords = Arrays.copyOf(coords, capacity * COORDS);
+			codes = Arrays.copyOf(codes, capacity * CODES);
+			sensors = Arrays.copyOf(sensors, capacity * SENSORS);
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package com.annotation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.annotation.AnnotationStore.Category;
+import com.annotation.AnnotationStore.FrameSnapshot;
+
+/**
+ * Exports the boxes of every annotated frame as training data: YOLO label files with a classes file, one COCO
+ * JSON file and Pascal VOC XML files. The exports point at images the caller has written to the frame
+ * directory ({@code frames/frame_000001.jpg} and so on, see {@link #frameFileName}), numbered by the frame
+ * indexes of the store.
+ * Per-frame files are written in parallel; COCO is rendered in parallel batches and streamed to disk in order.
+ */
+public class DatasetExporter {
+	private static final Logger logger = LoggerFactory.getLogger(DatasetExporter.class);
+
+	public enum Format {
+		YOLO, COCO, VOC
+	}
+
+	// Frames rendered in parallel before a COCO batch is written
+	private static final int COCO_BATCH_FRAMES = 512;
+
+	public static final class Result {
+		public final int frames;
+		public final int boxes;
+		public final long elapsedNanos;
+
+		Result(int frames, int boxes, long elapsedNanos) {
+			this.frames = frames;
+			this.boxes = boxes;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			double seconds = elapsedNanos / 1e9;
+			return String.format(Locale.ROOT, "Exported %d boxes on %d frames in %.2f s (%.0f boxes/s)", boxes,
+					frames, seconds, boxes / Math.max(seconds, 1e-9));
+		}
+	}
+
+	private final AnnotationStore store;
+	private final int imageWidth;
+	private final int imageHeight;
+	private final File frameDirectory;
+	private final String imageExtension;
+
+	// frameDirectory holds the frames of the store, named by frameFileName
+	public DatasetExporter(AnnotationStore store, int imageWidth, int imageHeight, File frameDirectory,
+			String imageExtension) {
+		this.store = store;
+		this.imageWidth = imageWidth;
+		this.imageHeight = imageHeight;
+		this.frameDirectory = frameDirectory;
+		this.imageExtension = imageExtension;
+	}
+
+	// Frame indexes of the store, counted from 1
+	public static String frameFileName(int frame, String extension) {
+		return String.format("frame_%06d.%s", frame + 1, extension);
+	}
+
+	public static String baseName(int frame) {
+		return String.format("frame_%06d", frame + 1);
+	}
+
+	// Writes <outputDirectory>/yolo, /coco and /voc for the requested formats
+	public Result export(File outputDirectory, Set<Format> formats) throws IOException {
+		long start = System.nanoTime();
+		int[] frames = store.annotatedFrames();
+		List<FrameSnapshot> snapshots = new ArrayList<>(frames.length);
+		int boxes = 0;
+		for (int frame : frames) {
+			FrameSnapshot snapshot = store.snapshot(frame);
+			snapshots.add(snapshot);
+			boxes += snapshot.count;
+		}
+		try {
+			if (formats.contains(Format.YOLO)) {
+				exportYolo(new File(outputDirectory, "yolo"), snapshots);
+			}
+			if (formats.contains(Format.VOC)) {
+				exportVoc(new File(outputDirectory, "voc"), snapshots);
+			}
+			if (formats.contains(Format.COCO)) {
+				exportCoco(new File(outputDirectory, "coco"), snapshots);
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		Result result = new Result(frames.length, boxes, System.nanoTime() - start);
+		logger.info(result + " to " + outputDirectory + ".");
+		return result;
+	}
+
+	public Result export(File outputDirectory) throws IOException {
+		return export(outputDirectory, EnumSet.allOf(Format.class));
+	}
+
+	// labels/<frame>.txt with "class cx cy w h" normalised to 0-1, classes.txt and a list of the images
+	private void exportYolo(File directory, List<FrameSnapshot> snapshots) throws IOException {
+		File labels = new File(directory, "labels");
+		labels.mkdirs();
+		List<String> classes = new ArrayList<>();
+		for (Category category : Category.values()) {
+			classes.add(category.getLabel());
+		}
+		Files.write(new File(directory, "classes.txt").toPath(), classes, StandardCharsets.UTF_8);
+		List<String> images = new ArrayList<>(snapshots.size());
+		for (FrameSnapshot snapshot : snapshots) {
+			images.add(imageFile(snapshot.frame).getAbsolutePath());
+		}
+		Files.write(new File(directory, "images.txt").toPath(), images, StandardCharsets.UTF_8);
+
+		snapshots.parallelStream().forEach(snapshot -> {
+			StringBuilder lines = new StringBuilder(snapshot.count * 48);
+			for (int i = 0; i < snapshot.count; i++) {
+				int[] box = clipped(snapshot, i);
+				if (box == null) {
+					continue;
+				}
+				lines.append(snapshot.categories[i].ordinal()).append(' ')
+						.append(normalised((box[0] + box[2] / 2.0) / imageWidth)).append(' ')
+						.append(normalised((box[1] + box[3] / 2.0) / imageHeight)).append(' ')
+						.append(normalised(box[2] / (double) imageWidth)).append(' ')
+						.append(normalised(box[3] / (double) imageHeight)).append('\n');
+			}
+			write(new File(labels, baseName(snapshot.frame) + ".txt"), lines);
+		});
+	}
+
+	// Annotations/<frame>.xml; boxes marked as blurred are flagged difficult
+	private void exportVoc(File directory, List<FrameSnapshot> snapshots) {
+		File annotations = new File(directory, "Annotations");
+		annotations.mkdirs();
+		snapshots.parallelStream().forEach(snapshot -> {
+			String fileName = frameFileName(snapshot.frame, imageExtension);
+			StringBuilder xml = new StringBuilder(512 + snapshot.count * 256);
+			xml.append("<annotation>\n");
+			xml.append("\t<folder>").append(escapeXml(frameDirectory.getName())).append("</folder>\n");
+			xml.append("\t<filename>").append(escapeXml(fileName)).append("</filename>\n");
+			xml.append("\t<path>").append(escapeXml(imageFile(snapshot.frame).getAbsolutePath())).append("</path>\n");
+			xml.append("\t<size><width>").append(imageWidth).append("</width><height>").append(imageHeight)
+					.append("</height><depth>3</depth></size>\n");
+			xml.append("\t<segmented>0</segmented>\n");
+			for (int i = 0; i < snapshot.count; i++) {
+				int[] box = clipped(snapshot, i);
+				if (box == null) {
+					continue;
+				}
+				xml.append("\t<object>\n");
+				xml.append("\t\t<name>").append(escapeXml(snapshot.categories[i].getLabel())).append("</name>\n");
+				xml.append("\t\t<pose>Unspecified</pose>\n");
+				xml.append("\t\t<truncated>").append(isTruncated(snapshot, i) ? 1 : 0).append("</truncated>\n");
+				xml.append("\t\t<difficult>")
+						.append(snapshot.qualities[i] == AnnotationStore.Quality.BLUR ? 1 : 0).append("</difficult>\n");
+				// VOC pixel coordinates are 1-based and inclusive
+				xml.append("\t\t<bndbox><xmin>").append(box[0] + 1).append("</xmin><ymin>").append(box[1] + 1)
+						.append("</ymin><xmax>").append(box[0] + box[2]).append("</xmax><ymax>")
+						.append(box[1] + box[3]).append("</ymax></bndbox>\n");
+				xml.append("\t</object>\n");
+			}
+			xml.append("</annotation>\n");
+			write(new File(annotations, baseName(snapshot.frame) + ".xml"), xml);
+		});
+	}
+
+	// One annotations.json; frames are rendered in parallel batches and written in order, so the file is never
+	// held in memory as a whole
+	private void exportCoco(File directory, List<FrameSnapshot> snapshots) throws IOException {
+		directory.mkdirs();
+		// Annotation ids continue across frames
+		int[] firstId = new int[snapshots.size() + 1];
+		firstId[0] = 1;
+		for (int i = 0; i < snapshots.size(); i++) {
+			firstId[i + 1] = firstId[i] + snapshots.get(i).count;
+		}
+		try (JsonWriter json = new JsonWriter(newWriter(new File(directory, "annotations.json")))) {
+			json.beginObject();
+			json.name("info").beginObject().name("description").value("FrameAnnotator export")
+					.name("date_created").value(java.time.LocalDateTime.now().toString()).endObject();
+			json.name("categories").beginArray();
+			for (Category category : Category.values()) {
+				json.beginObject().name("id").value(category.ordinal() + 1).name("name").value(category.getLabel())
+						.name("supercategory").value("object").endObject();
+			}
+			json.endArray();
+			json.name("images").beginArray();
+			for (FrameSnapshot snapshot : snapshots) {
+				json.beginObject().name("id").value(snapshot.frame + 1)
+						.name("file_name").value(frameDirectory.getName() + "/" + frameFileName(snapshot.frame, imageExtension))
+						.name("width").value(imageWidth).name("height").value(imageHeight).endObject();
+			}
+			json.endArray();
+			json.name("annotations").beginArray();
+			for (int batch = 0; batch < snapshots.size(); batch += COCO_BATCH_FRAMES) {
+				int from = batch, to = Math.min(snapshots.size(), batch + COCO_BATCH_FRAMES);
+				String[] rendered = new String[to - from];
+				IntStream.range(from, to).parallel()
+						.forEach(i -> rendered[i - from] = cocoAnnotations(snapshots.get(i), firstId[i]));
+				for (String annotations : rendered) {
+					if (!annotations.isEmpty()) {
+						json.rawValue(annotations);
+					}
+				}
+			}
+			json.endArray();
+			json.endObject();
+		}
+	}
+
+	// The annotation objects of one frame, comma separated, ready to go into the annotations array
+	private String cocoAnnotations(FrameSnapshot snapshot, int firstId) {
+		StringBuilder json = new StringBuilder(snapshot.count * 160);
+		int id = firstId;
+		for (int i = 0; i < snapshot.count; i++, id++) {
+			int[] box = clipped(snapshot, i);
+			if (box == null) {
+				continue;
+			}
+			if (json.length() > 0) {
+				json.append(',');
+			}
+			json.append("{\"id\":").append(id).append(",\"image_id\":").append(snapshot.frame + 1)
+					.append(",\"category_id\":").append(snapshot.categories[i].ordinal() + 1)
+					.append(",\"bbox\":[").append(box[0]).append(',').append(box[1]).append(',').append(box[2])
+					.append(',').append(box[3]).append("],\"area\":").append((long) box[2] * box[3])
+					.append(",\"iscrowd\":0}");
+		}
+		return json.toString();
+	}
+
+	// The box limited to the image; null when nothing of it is inside
+	private int[] clipped(FrameSnapshot snapshot, int index) {
+		int c = index * 4;
+		int x0 = Math.max(0, snapshot.coords[c]);
+		int y0 = Math.max(0, snapshot.coords[c + 1]);
+		int x1 = Math.min(imageWidth, snapshot.coords[c] + snapshot.coords[c + 2]);
+		int y1 = Math.min(imageHeight, snapshot.coords[c + 1] + snapshot.coords[c + 3]);
+		if (x1 <= x0 || y1 <= y0) {
+			return null;
+		}
+		return new int[] { x0, y0, x1 - x0, y1 - y0 };
+	}
+
+	private boolean isTruncated(FrameSnapshot snapshot, int index) {
+		int c = index * 4;
+		return snapshot.coords[c] < 0 || snapshot.coords[c + 1] < 0
+				|| snapshot.coords[c] + snapshot.coords[c + 2] > imageWidth
+				|| snapshot.coords[c + 1] + snapshot.coords[c + 3] > imageHeight;
+	}
+
+	private File imageFile(int frame) {
+		return new File(frameDirectory, frameFileName(frame, imageExtension));
+	}
+
+	private static String normalised(double value) {
+		return String.format(Locale.ROOT, "%.6f", Math.max(0, Math.min(1, value)));
+	}
+
+	private static String escapeXml(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	private static Writer newWriter(File file) throws IOException {
+		return new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	private static void write(File file, CharSequence content) {
+		try (Writer writer = newWriter(file)) {
+			writer.append(content);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.annotation;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the boxes of one frame. Each cell lists the boxes that overlap it, stored in one flat
+ * array (cell offsets plus box indexes), so a query only looks at the boxes near the requested area.
+ * The index is immutable; the store rebuilds it after the frame changes.
+ */
+final class GridIndex {
+
+	// In image pixels; about the size of a small box on a 1080p frame
+	static final int CELL_SIZE = 64;
+
+	private final int[] coords;
+	private final int count;
+	private final int originX;
+	private final int originY;
+	private final int columns;
+	private final int rows;
+	private final int[] cellStart;
+	private final int[] cellBoxes;
+
+	// coords holds x, y, width, height per box
+	GridIndex(int[] coords, int count) {
+		this.coords = coords;
+		this.count = count;
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < count; i++) {
+			int c = i * 4;
+			minX = Math.min(minX, coords[c]);
+			minY = Math.min(minY, coords[c + 1]);
+			maxX = Math.max(maxX, coords[c] + coords[c + 2]);
+			maxY = Math.max(maxY, coords[c + 1] + coords[c + 3]);
+		}
+		if (count == 0) {
+			minX = minY = maxX = maxY = 0;
+		}
+		this.originX = minX;
+		this.originY = minY;
+		this.columns = (maxX - minX) / CELL_SIZE + 1;
+		this.rows = (maxY - minY) / CELL_SIZE + 1;
+
+		// Count the boxes per cell, turn the counts into offsets, then fill
+		int[] start = new int[columns * rows + 1];
+		for (int i = 0; i < count; i++) {
+			forEachCell(i, cell -> start[cell + 1]++);
+		}
+		for (int cell = 0; cell < columns * rows; cell++) {
+			start[cell + 1] += start[cell];
+		}
+		int[] boxes = new int[start[columns * rows]];
+		int[] fill = Arrays.copyOf(start, columns * rows);
+		for (int i = 0; i < count; i++) {
+			int box = i;
+			forEachCell(i, cell -> boxes[fill[cell]++] = box);
+		}
+		this.cellStart = start;
+		this.cellBoxes = boxes;
+	}
+
+	private interface CellConsumer {
+		void accept(int cell);
+	}
+
+	private void forEachCell(int box, CellConsumer consumer) {
+		int c = box * 4;
+		int firstColumn = column(coords[c]);
+		int lastColumn = column(coords[c] + coords[c + 2]);
+		int firstRow = row(coords[c + 1]);
+		int lastRow = row(coords[c + 1] + coords[c + 3]);
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				consumer.accept(row * columns + column);
+			}
+		}
+	}
+
+	private int column(int x) {
+		return Math.max(0, Math.min(columns - 1, Math.floorDiv(x - originX, CELL_SIZE)));
+	}
+
+	private int row(int y) {
+		return Math.max(0, Math.min(rows - 1, Math.floorDiv(y - originY, CELL_SIZE)));
+	}
+
+	// Boxes whose outline intersects the area, in the order they were added
+	int[] query(Rectangle area) {
+		if (count == 0 || area.width < 0 || area.height < 0) {
+			return new int[0];
+		}
+		boolean[] seen = new boolean[count];
+		int[] result = new int[Math.min(count, 16)];
+		int found = 0;
+		int lastColumn = column(area.x + area.width);
+		int lastRow = row(area.y + area.height);
+		for (int row = row(area.y); row <= lastRow; row++) {
+			for (int column = column(area.x); column <= lastColumn; column++) {
+				int cell = row * columns + column;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int box = cellBoxes[k];
+					if (!seen[box] && intersects(box, area)) {
+						seen[box] = true;
+						if (found == result.length) {
+							result = Arrays.copyOf(result, Math.min(count, found * 2));
+						}
+						result[found++] = box;
+					}
+				}
+			}
+		}
+		result = Arrays.copyOf(result, found);
+		Arrays.sort(result);
+		return result;
+	}
+
+	// The box drawn last, so on top, that contains the point; -1 when there is none
+	int hitTest(int x, int y) {
+		if (count == 0) {
+			return -1;
+		}
+		int cell = row(y) * columns + column(x);
+		int hit = -1;
+		for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+			int box = cellBoxes[k];
+			int c = box * 4;
+			if (box > hit && x >= coords[c] && y >= coords[c + 1] && x <= coords[c] + coords[c + 2]
+					&& y <= coords[c + 1] + coords[c + 3]) {
+				hit = box;
+			}
+		}
+		return hit;
+	}
+
+	// Inclusive of the right and bottom edge, where drawRect paints the outline
+	private boolean intersects(int box, Rectangle area) {
+		int c = box * 4;
+		return coords[c] <= area.x + area.width && area.x <= coords[c] + coords[c + 2]
+				&& coords[c + 1] <= area.y + area.height && area.y <= coords[c + 1] + coords[c + 3];
+	}
+}
@@ -0,0 +1,126 @@
+package com.annotation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Minimal streaming JSON writer: values go straight to the underlying writer, nothing is kept in memory
+ * apart from the nesting. Elements rendered elsewhere can be added with {@link #rawValue}.
+ */
+class JsonWriter implements AutoCloseable {
+
+	private final Writer out;
+	// One entry per open object or array: true until its first element is written
+	private final Deque<Boolean> first = new ArrayDeque<>();
+	private boolean afterName;
+
+	JsonWriter(Writer out) {
+		this.out = out;
+	}
+
+	JsonWriter beginObject() throws IOException {
+		separator();
+		out.write('{');
+		first.push(true);
+		return this;
+	}
+
+	JsonWriter endObject() throws IOException {
+		first.pop();
+		out.write('}');
+		return this;
+	}
+
+	JsonWriter beginArray() throws IOException {
+		separator();
+		out.write('[');
+		first.push(true);
+		return this;
+	}
+
+	JsonWriter endArray() throws IOException {
+		first.pop();
+		out.write(']');
+		return this;
+	}
+
+	JsonWriter name(String name) throws IOException {
+		separator();
+		quote(name, out);
+		out.write(':');
+		afterName = true;
+		return this;
+	}
+
+	JsonWriter value(String value) throws IOException {
+		separator();
+		quote(value, out);
+		return this;
+	}
+
+	JsonWriter value(long value) throws IOException {
+		separator();
+		out.write(Long.toString(value));
+		return this;
+	}
+
+	// An already encoded JSON value
+	JsonWriter rawValue(CharSequence json) throws IOException {
+		separator();
+		out.append(json);
+		return this;
+	}
+
+	private void separator() throws IOException {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (!first.isEmpty()) {
+			if (first.peek()) {
+				first.pop();
+				first.push(false);
+			} else {
+				out.write(',');
+			}
+		}
+	}
+
+	static void quote(String value, Appendable out) throws IOException {
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.append(String.format("\\u%04x", (int) c));
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
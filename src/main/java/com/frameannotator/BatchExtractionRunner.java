@@ -0,0 +1,132 @@
+package com.frameannotator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.video.AutoMasker;
+import com.video.ExtractionResult;
+import com.video.FrameSampler;
+import com.video.VideoFrameExtractor;
+
+/**
+ * Headless mode for render servers: extracts the frames of many videos in parallel, without the Swing UI, and
+ * optionally blurs the faces and licence plates in them. The process exits with {@link #FAILED} when no videos
+ * were found or any of them failed, so a job scheduler can tell.
+ */
+@Component
+@ConditionalOnProperty(prefix = "frameannotator.batch", name = "enabled", havingValue = "true")
+public class BatchExtractionRunner implements CommandLineRunner, ExitCodeGenerator {
+	private static final Logger logger = LoggerFactory.getLogger(BatchExtractionRunner.class);
+
+	static final int FAILED = 1;
+	private static final List<String> VIDEO_EXTENSIONS = Arrays.asList("mp4", "mkv", "avi");
+
+	private final FrameAnnotatorProperties properties;
+	private int exitCode;
+
+	public BatchExtractionRunner(FrameAnnotatorProperties properties) {
+		this.properties = properties;
+	}
+
+	@Override
+	public void run(String... args) throws Exception {
+		FrameAnnotatorProperties.Batch batch = properties.getBatch();
+		List<File> videos = findVideos(batch.getInput());
+		if (videos.isEmpty()) {
+			logger.error("No videos found in " + batch.getInput());
+			exitCode = FAILED;
+			return;
+		}
+		int parallelism = batch.getParallelism() > 0 ? batch.getParallelism()
+				: Runtime.getRuntime().availableProcessors();
+		parallelism = Math.min(parallelism, videos.size());
+		FrameSampler sampler = properties.getExtraction().toSampler();
+		// Cores left over by the video pool decode segments of each video, e.g. one long video gets all of them
+		int segments = properties.getExtraction().getSegments() > 0 ? properties.getExtraction().getSegments()
+				: Math.max(1, Runtime.getRuntime().availableProcessors() / parallelism);
+		File outputRoot = batch.getOutput().isEmpty() ? null : new File(batch.getOutput());
+		// One masker for all threads; a missing detector fails the batch before anything is extracted
+		AutoMasker masker = batch.isAutoMask() ? new AutoMasker(properties.getMasking().getDetectors()) : null;
+		logger.info("Extracting " + videos.size() + " videos with " + sampler + " on " + parallelism + " threads, "
+				+ segments + " segments per video.");
+
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		List<Future<ExtractionResult>> results = new ArrayList<>();
+		for (File video : videos) {
+			results.add(executor.submit(() -> VideoFrameExtractor.extractToDirectory(video.getAbsolutePath(), sampler,
+					outputRoot, batch.getImageFormat(), segments, masker)));
+		}
+		executor.shutdown();
+
+		int totalFrames = 0;
+		int totalMasked = 0;
+		int failed = 0;
+		for (int i = 0; i < results.size(); i++) {
+			try {
+				ExtractionResult result = results.get(i).get();
+				totalFrames += result.getFrames();
+				totalMasked += result.getMasked();
+				logger.info(result.toString());
+			} catch (ExecutionException e) {
+				failed++;
+				logger.error("Extraction failed for " + videos.get(i), e.getCause());
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		logger.info(String.format("Extracted %d frames from %d videos in %.2f s (%.1f frames/s), %d failed.",
+				totalFrames, videos.size() - failed, seconds, totalFrames / seconds, failed));
+		if (masker != null) {
+			logger.info("Masked " + totalMasked + " regions.");
+		}
+		if (failed > 0) {
+			exitCode = FAILED;
+		}
+	}
+
+	@Override
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	private static List<File> findVideos(List<String> inputs) {
+		List<File> videos = new ArrayList<>();
+		for (String input : inputs) {
+			File file = new File(input.trim());
+			File[] children = file.isDirectory() ? file.listFiles(File::isFile) : null;
+			if (children != null) {
+				Arrays.sort(children);
+				for (File child : children) {
+					if (isVideo(child)) {
+						videos.add(child);
+					}
+				}
+			} else if (file.isFile()) {
+				videos.add(file);
+			} else {
+				logger.warn("Skipping missing input " + file);
+			}
+		}
+		return videos;
+	}
+
+	private static boolean isVideo(File file) {
+		String name = file.getName();
+		int extension = name.lastIndexOf('.');
+		return extension > 0 && VIDEO_EXTENSIONS.contains(name.substring(extension + 1).toLowerCase(Locale.ROOT));
+	}
+}
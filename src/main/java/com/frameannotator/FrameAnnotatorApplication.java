@@ -5,35 +5,62 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
 
 import com.image.ImageDisplay;
+import com.video.FrameSampler;
+import com.video.FrameSource;
+import com.video.NativeLoader;
 import com.video.VideoFrameExtractor;
 
-import java.awt.image.BufferedImage;
+import java.awt.GraphicsEnvironment;
 import java.io.File;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @SpringBootApplication
+@EnableConfigurationProperties(FrameAnnotatorProperties.class)
 public class FrameAnnotatorApplication {
 	private static final Logger logger = LoggerFactory.getLogger(FrameAnnotatorApplication.class);
+	// Only touched on the event dispatch thread
+	private static JFileChooser fileChooser;
+
     public static void main(String[] args) {
-        SpringApplication.run(FrameAnnotatorApplication.class, args);
+        StartupTimer timer = new StartupTimer();
+        // OpenCV is first needed when a video is decoded; it loads while Spring starts and the user picks a file
+        NativeLoader.loadInBackground();
+        SpringApplication application = new SpringApplication(FrameAnnotatorApplication.class);
+        // Spring defaults to headless, which the Swing UI cannot run with; batch mode switches it back on
+        application.setHeadless(false);
+        // Batch mode may come from an argument, a property file or the environment. Its bound value decides
+        // about AWT before anything touches it, since AWT fixes headless on first use.
+        application.addListeners((ApplicationListener<ApplicationEnvironmentPreparedEvent>) event -> {
+            if (event.getEnvironment().getProperty("frameannotator.batch.enabled", Boolean.class, false)) {
+                // Render servers have no display; make sure nothing tries to open one
+                System.setProperty("java.awt.headless", "true");
+            } else if (!GraphicsEnvironment.isHeadless()) {
+                // The look and feel and the file chooser take a while to set up; the EDT does it alongside Spring
+                SwingUtilities.invokeLater(() -> {
+                    createFileChooser();
+                    timer.phase("Swing setup");
+                });
+            }
+        });
+        ConfigurableApplicationContext context = application.run(args);
+        timer.phase("Spring context");
+        FrameAnnotatorProperties properties = context.getBean(FrameAnnotatorProperties.class);
+        if (properties.getBatch().isEnabled()) {
+            // BatchExtractionRunner has already processed the videos while the context started, and sets the exit code
+            System.exit(SpringApplication.exit(context));
+        }
         
         SwingUtilities.invokeLater(() -> {
-        	try {
-                UIManager.setLookAndFeel("javax.swing.plaf.nimbus.NimbusLookAndFeel");
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (fileChooser == null) {
+                createFileChooser();
             }
-            // Create a file chooser
-            JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setDialogTitle("Select a Video File");
-            fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
-            fileChooser.setAcceptAllFileFilterUsed(false);
-            
-            
-            // Add a filter for video files (optional)
-            fileChooser.addChoosableFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Video Files", "mp4", "mkv", "avi"));
+            timer.phase("file chooser ready");
 
             // Show the dialog and get the user's selection
             int userSelection = fileChooser.showOpenDialog(null);
@@ -41,19 +68,51 @@ public class FrameAnnotatorApplication {
                 File videoFile = fileChooser.getSelectedFile();
                 String videoPath = videoFile.getAbsolutePath(); // Get the selected video path
                 
-                // Extract frames from the selected video
-                
-                List<BufferedImage> extractedImages = VideoFrameExtractor.extractFrames(videoPath, 30);
-                logger.info("Extracted frames from the video.");
-                // Display the extracted images in a new window
-                logger.info("Loading the the extracted images in tool.");
-                new ImageDisplay(extractedImages, videoFile.getName());
+                // Frames are found in the background; the annotator opens as soon as the first one exists
+                FrameSampler sampler = properties.getExtraction().toSampler();
+                FrameSource frameSource;
+                try {
+                    frameSource = VideoFrameExtractor.streamFrameSource(videoPath, sampler,
+                            properties.getExtraction().getProxyEdge());
+                } catch (IllegalStateException e) {
+                    logger.error("Could not open " + videoPath, e);
+                    JOptionPane.showMessageDialog(null, e.getMessage());
+                    return;
+                }
+                logger.info("Opened frame source for the video.");
+                AtomicBoolean displayed = new AtomicBoolean();
+                frameSource.addListener((size, progress, complete) -> {
+                    if (size > 0 && displayed.compareAndSet(false, true)) {
+                        // Display the frames in a new window
+                        logger.info("Loading the frames in tool.");
+                        SwingUtilities.invokeLater(() -> new ImageDisplay(frameSource, videoFile.getName(),
+                                sampler.toString(), properties.getMasking().getDetectors()));
+                    } else if (size == 0 && complete) {
+                        logger.error("No frames found in " + videoPath);
+                        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null,
+                                "No frames could be read from " + videoFile.getName()));
+                    }
+                });
             } else {
             	logger.error("No video file selected.");
                 System.out.println("No file selected.");
             }
         });
     }
+
+    private static void createFileChooser() {
+        try {
+            UIManager.setLookAndFeel("javax.swing.plaf.nimbus.NimbusLookAndFeel");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Select a Video File");
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        fileChooser.setAcceptAllFileFilterUsed(false);
+        // Add a filter for video files (optional)
+        fileChooser.addChoosableFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Video Files", "mp4", "mkv", "avi"));
+    }
 }
 
 
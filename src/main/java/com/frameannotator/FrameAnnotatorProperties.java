@@ -0,0 +1,232 @@
+package com.frameannotator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import com.video.AutoMasker;
+import com.video.FrameSampler;
+
+/**
+ * Settings bound from application.properties or command line arguments (e.g.
+ * {@code --frameannotator.batch.enabled=true --frameannotator.batch.input=/data/videos}).
+ */
+@ConfigurationProperties(prefix = "frameannotator")
+public class FrameAnnotatorProperties {
+
+	private final Extraction extraction = new Extraction();
+	private final Batch batch = new Batch();
+	private final Masking masking = new Masking();
+	private final MetricsSettings metrics = new MetricsSettings();
+
+	public Extraction getExtraction() {
+		return extraction;
+	}
+
+	public Batch getBatch() {
+		return batch;
+	}
+
+	public Masking getMasking() {
+		return masking;
+	}
+
+	public MetricsSettings getMetrics() {
+		return metrics;
+	}
+
+	public static class Extraction {
+
+		private FrameSampler.Mode mode = FrameSampler.Mode.FRAMES_PER_MINUTE;
+
+		// Frames per minute, seconds between frames, shot-change threshold or frame count, depending on mode
+		private double value = 30;
+
+		// Parallel decoders per video; 0 uses one per core, shared between the videos of a batch
+		private int segments;
+
+		// Near-duplicate removal: frames within this many differing dHash bits of one of the last
+		// duplicateWindow kept frames are dropped; a window of 0 keeps every sampled frame
+		private int duplicateDistance = 5;
+		private int duplicateWindow;
+
+		// Longer edge of the frames kept for browsing, e.g. 1280 for 720p proxies of 4K footage; masking and
+		// saving decode the full resolution frame. 0 keeps full resolution frames.
+		private int proxyEdge;
+
+		public FrameSampler.Mode getMode() {
+			return mode;
+		}
+
+		public void setMode(FrameSampler.Mode mode) {
+			this.mode = mode;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public void setValue(double value) {
+			this.value = value;
+		}
+
+		public int getSegments() {
+			return segments;
+		}
+
+		public void setSegments(int segments) {
+			this.segments = segments;
+		}
+
+		public int getDuplicateDistance() {
+			return duplicateDistance;
+		}
+
+		public void setDuplicateDistance(int duplicateDistance) {
+			this.duplicateDistance = duplicateDistance;
+		}
+
+		public int getDuplicateWindow() {
+			return duplicateWindow;
+		}
+
+		public void setDuplicateWindow(int duplicateWindow) {
+			this.duplicateWindow = duplicateWindow;
+		}
+
+		public int getProxyEdge() {
+			return proxyEdge;
+		}
+
+		public void setProxyEdge(int proxyEdge) {
+			this.proxyEdge = proxyEdge;
+		}
+
+		public FrameSampler toSampler() {
+			FrameSampler sampler;
+			switch (mode) {
+			case EVERY_N_SECONDS:
+				sampler = FrameSampler.everySeconds(value);
+				break;
+			case KEYFRAMES:
+				sampler = FrameSampler.keyframes(value);
+				break;
+			case FIXED_COUNT:
+				sampler = FrameSampler.fixedCount((int) value);
+				break;
+			default:
+				sampler = FrameSampler.framesPerMinute((int) value);
+			}
+			return duplicateWindow > 0 ? sampler.withoutDuplicates(duplicateDistance, duplicateWindow) : sampler;
+		}
+	}
+
+	public static class Batch {
+
+		private boolean enabled;
+
+		// Video files and/or directories of videos
+		private List<String> input = new ArrayList<>();
+
+		// Root for the per-video output folders; the working directory when empty, like the annotator
+		private String output = "";
+
+		// Videos processed at the same time; 0 uses one per core
+		private int parallelism;
+
+		private String imageFormat = "jpg";
+
+		// Blur the faces and licence plates of every extracted frame before it is written
+		private boolean autoMask;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public List<String> getInput() {
+			return input;
+		}
+
+		public void setInput(List<String> input) {
+			this.input = input;
+		}
+
+		public String getOutput() {
+			return output;
+		}
+
+		public void setOutput(String output) {
+			this.output = output;
+		}
+
+		public int getParallelism() {
+			return parallelism;
+		}
+
+		public void setParallelism(int parallelism) {
+			this.parallelism = parallelism;
+		}
+
+		public String getImageFormat() {
+			return imageFormat;
+		}
+
+		public void setImageFormat(String imageFormat) {
+			this.imageFormat = imageFormat;
+		}
+
+		public boolean isAutoMask() {
+			return autoMask;
+		}
+
+		public void setAutoMask(boolean autoMask) {
+			this.autoMask = autoMask;
+		}
+	}
+
+	public static class Masking {
+
+		// Cascade files, or names of the Haar and LBP cascades bundled with OpenCV, used by auto-masking
+		private List<String> detectors = new ArrayList<>(AutoMasker.DEFAULT_DETECTORS);
+
+		public List<String> getDetectors() {
+			return detectors;
+		}
+
+		public void setDetectors(List<String> detectors) {
+			this.detectors = detectors;
+		}
+	}
+
+	// Named apart from Micrometer's Metrics, which the configuration uses next to it
+	public static class MetricsSettings {
+
+		// Publish the meters as MBeans
+		private boolean jmx = true;
+
+		// Interval of the summary written to the log; zero turns it off
+		private Duration logInterval = Duration.ofMinutes(1);
+
+		public boolean isJmx() {
+			return jmx;
+		}
+
+		public void setJmx(boolean jmx) {
+			this.jmx = jmx;
+		}
+
+		public Duration getLogInterval() {
+			return logInterval;
+		}
+
+		public void setLogInterval(Duration logInterval) {
+			this.logInterval = logInterval;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.frameannotator;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.logging.LoggingMeterRegistry;
+import io.micrometer.core.instrument.logging.LoggingRegistryConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.jmx.JmxConfig;
+
+/**
+ * Publishes the meters of {@link com.metrics.FrameMetrics} over JMX (domain {@code metrics}, e.g. in
+ * JConsole) and as a periodic summary in the log. The registries join Micrometer's global registry, where the
+ * meters are recorded. The registries are created eagerly, as nothing in the context asks for them.
+ */
+@Configuration
+public class MetricsConfiguration {
+	private static final Logger logger = LoggerFactory.getLogger(MetricsConfiguration.class);
+
+	@Bean(destroyMethod = "close")
+	@Lazy(false)
+	public MeterRegistry jmxMeterRegistry(FrameAnnotatorProperties properties) {
+		if (!properties.getMetrics().isJmx()) {
+			return null;
+		}
+		return global(new JmxMeterRegistry(JmxConfig.DEFAULT, Clock.SYSTEM));
+	}
+
+	@Bean(destroyMethod = "close")
+	@Lazy(false)
+	public MeterRegistry loggingMeterRegistry(FrameAnnotatorProperties properties) {
+		Duration interval = properties.getMetrics().getLogInterval();
+		if (interval.isZero() || interval.isNegative()) {
+			return null;
+		}
+		LoggingRegistryConfig config = new LoggingRegistryConfig() {
+			@Override
+			public String get(String key) {
+				return null;
+			}
+
+			@Override
+			public Duration step() {
+				return interval;
+			}
+		};
+		logger.info("Logging a metrics summary every " + interval + ".");
+		return global(new LoggingMeterRegistry(config, Clock.SYSTEM));
+	}
+
+	private static MeterRegistry global(MeterRegistry registry) {
+		Metrics.addRegistry(registry);
+		return registry;
+	}
+}
@@ -0,0 +1,21 @@
+package com.frameannotator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs how long each startup phase took and the time since {@code main} was entered.
+ */
+final class StartupTimer {
+	private static final Logger logger = LoggerFactory.getLogger(StartupTimer.class);
+
+	private final long start = System.nanoTime();
+	private long last = start;
+
+	synchronized void phase(String name) {
+		long now = System.nanoTime();
+		logger.info("Startup: " + name + " took " + (now - last) / 1_000_000 + " ms (" + (now - start) / 1_000_000
+				+ " ms since start).");
+		last = now;
+	}
+}
@@ -0,0 +1,233 @@
+package com.image;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.annotation.AnnotationStore;
+import com.video.BoxTracker;
+import com.video.FrameSource;
+
+/**
+ * Carries the boxes of a frame forward to the next sampled frames on background threads, so the same truck
+ * does not have to be drawn again on every frame. Each run tracks the boxes frame by frame with a
+ * {@link BoxTracker}; what it finds is kept as suggestions with the attributes of the box they came from and
+ * the confidence of the track, until the annotator accepts or replaces them. A new run from the same frame
+ * (e.g. after another box was drawn) cancels the old one.
+ */
+class BoxPropagator {
+	private static final Logger logger = LoggerFactory.getLogger(BoxPropagator.class);
+
+	static final int DEFAULT_DISTANCE = 5;
+	// Tracks below this confidence are not suggested
+	static final double MIN_CONFIDENCE = 0.3;
+	// A suggestion overlapping a box of its frame this much is already annotated
+	private static final double MAX_OVERLAP = 0.5;
+	private static final int THREADS = 2;
+
+	static final class Suggestion {
+		final Rectangle box;
+		final double confidence;
+		final AnnotationStore.Category category;
+		final AnnotationStore.Confidence annotatorConfidence;
+		final AnnotationStore.Quality quality;
+		final String azimuth;
+		final String angle;
+		final String position;
+		final String height;
+
+		Suggestion(Rectangle box, double confidence, Suggestion source) {
+			this(box, confidence, source.category, source.annotatorConfidence, source.quality, source.azimuth,
+					source.angle, source.position, source.height);
+		}
+
+		Suggestion(Rectangle box, double confidence, AnnotationStore.Category category,
+				AnnotationStore.Confidence annotatorConfidence, AnnotationStore.Quality quality, String azimuth,
+				String angle, String position, String height) {
+			this.box = box;
+			this.confidence = confidence;
+			this.category = category;
+			this.annotatorConfidence = annotatorConfidence;
+			this.quality = quality;
+			this.azimuth = azimuth;
+			this.angle = angle;
+			this.position = position;
+			this.height = height;
+		}
+	}
+
+	private final FrameSource frames;
+	private final AnnotationStore store;
+	private final int distance;
+	private final IntConsumer onSuggestions;
+	private final ExecutorService executor;
+	private final Map<Integer, List<Suggestion>> suggestions = new ConcurrentHashMap<>();
+	// Cancel flags of the running propagations by the frame they start from. Runs are not interrupted, which
+	// would close the channel of a frame cache in the middle of a read.
+	private final Map<Integer, AtomicBoolean> running = new HashMap<>();
+
+	// onSuggestions is called from the worker threads with the frame that got new suggestions
+	BoxPropagator(FrameSource frames, AnnotationStore store, int distance, IntConsumer onSuggestions) {
+		this.frames = frames;
+		this.store = store;
+		this.distance = distance;
+		this.onSuggestions = onSuggestions;
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "box-propagation-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		});
+	}
+
+	// Tracks the current boxes of the frame to the frames after it
+	synchronized void propagate(int frame) {
+		AtomicBoolean previous = running.remove(frame);
+		if (previous != null) {
+			previous.set(true);
+		}
+		List<Suggestion> boxes = snapshot(frame);
+		if (boxes.isEmpty() || frame + 1 >= frames.size()) {
+			return;
+		}
+		AtomicBoolean cancelled = new AtomicBoolean();
+		running.put(frame, cancelled);
+		executor.execute(() -> {
+			try {
+				track(frame, boxes, cancelled);
+			} finally {
+				synchronized (this) {
+					running.remove(frame, cancelled);
+				}
+			}
+		});
+	}
+
+	List<Suggestion> getSuggestions(int frame) {
+		return suggestions.getOrDefault(frame, List.of());
+	}
+
+	// Adds the suggestions of the frame to the store, except where the frame already has a box; returns the
+	// number added
+	int accept(int frame) {
+		List<Suggestion> accepted = suggestions.remove(frame);
+		if (accepted == null) {
+			return 0;
+		}
+		int added = 0;
+		synchronized (store) {
+			for (Suggestion suggestion : accepted) {
+				if (!overlapsBox(frame, suggestion.box)) {
+					store.add(frame, suggestion.box, suggestion.category, suggestion.annotatorConfidence,
+							suggestion.quality, suggestion.azimuth, suggestion.angle, suggestion.position,
+							suggestion.height);
+					added++;
+				}
+			}
+		}
+		return added;
+	}
+
+	void discard(int frame) {
+		suggestions.remove(frame);
+	}
+
+	synchronized void shutdown() {
+		running.values().forEach(cancelled -> cancelled.set(true));
+		running.clear();
+		executor.shutdown();
+	}
+
+	// Unlike shutdown, lets the started propagations run to the end and waits for them
+	boolean finish(long timeout, TimeUnit unit) throws InterruptedException {
+		executor.shutdown();
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	private List<Suggestion> snapshot(int frame) {
+		List<Suggestion> boxes = new ArrayList<>();
+		synchronized (store) {
+			for (int i = 0; i < store.count(frame); i++) {
+				boxes.add(new Suggestion(store.getBox(frame, i), 1.0, store.getCategory(frame, i),
+						store.getConfidence(frame, i), store.getQuality(frame, i), store.getAzimuth(frame, i),
+						store.getAngle(frame, i), store.getPosition(frame, i), store.getHeight(frame, i)));
+			}
+		}
+		return boxes;
+	}
+
+	private void track(int frame, List<Suggestion> boxes, AtomicBoolean cancelled) {
+		BoxTracker tracker = null;
+		try {
+			// Loads OpenCV, which can fail; that is logged like any other failure
+			tracker = new BoxTracker();
+			BufferedImage image = frames.getFrame(frame);
+			if (image == null) {
+				return;
+			}
+			// Boxes are in video pixels; a proxy frame has fewer
+			Dimension original = frames.getOriginalSize();
+			double boxScale = original == null ? 1.0 : image.getWidth() / (double) original.width;
+			tracker.start(image, boxScale, boxes.stream().map(box -> box.box).toArray(Rectangle[]::new));
+			int last = Math.min(frames.size() - 1, frame + distance);
+			for (int target = frame + 1; target <= last && !tracker.isLost() && !cancelled.get(); target++) {
+				BufferedImage next = frames.getFrame(target);
+				if (next == null) {
+					return;
+				}
+				BoxTracker.Track[] tracks = tracker.next(next);
+				List<Suggestion> found = new ArrayList<>();
+				for (int i = 0; i < tracks.length; i++) {
+					if (tracks[i].box != null && tracks[i].confidence >= MIN_CONFIDENCE) {
+						found.add(new Suggestion(tracks[i].box, tracks[i].confidence, boxes.get(i)));
+					}
+				}
+				if (found.isEmpty() || cancelled.get()) {
+					return;
+				}
+				suggestions.put(target, found);
+				onSuggestions.accept(target);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Could not propagate the boxes of frame " + (frame + 1), e);
+		} finally {
+			if (tracker != null) {
+				tracker.release();
+			}
+		}
+	}
+
+	private boolean overlapsBox(int frame, Rectangle box) {
+		for (int i = 0; i < store.count(frame); i++) {
+			if (overlap(store.getBox(frame, i), box) >= MAX_OVERLAP) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Intersection over union
+	static double overlap(Rectangle a, Rectangle b) {
+		Rectangle intersection = a.intersection(b);
+		if (intersection.isEmpty()) {
+			return 0;
+		}
+		double shared = (double) intersection.width * intersection.height;
+		return shared / ((double) a.width * a.height + (double) b.width * b.height - shared);
+	}
+}
@@ -0,0 +1,194 @@
+package com.image;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.IntSupplier;
+
+import javax.swing.JComponent;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+import com.video.ThumbnailCache;
+
+/**
+ * Horizontal strip of frame thumbnails for jumping around a video. Cells are virtual: only the ones inside
+ * the clip are painted and only their thumbnails are decoded, into a small LRU, so thousands of frames
+ * scroll like a handful. Frames without a thumbnail yet show their number until the thumbnailer gets there.
+ */
+class FilmstripPanel extends JComponent implements Scrollable {
+
+	static final int CELL_WIDTH = ThumbnailCache.MAX_EDGE + 8;
+	static final int CELL_HEIGHT = ThumbnailCache.MAX_EDGE * 9 / 16 + 24;
+	private static final int DECODED_THUMBNAILS = 200;
+	private static final Color BACKGROUND = new Color(40, 40, 40);
+	private static final Color PLACEHOLDER = new Color(70, 70, 70);
+	private static final Color CURRENT = new Color(255, 200, 0);
+	private static final Color ANNOTATED = new Color(0, 200, 90);
+
+	private final ThumbnailCache thumbnails;
+	private final IntSupplier frameCount;
+	private final IntPredicate annotated;
+	private final Map<Integer, BufferedImage> decoded = new LinkedHashMap<Integer, BufferedImage>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+			return size() > DECODED_THUMBNAILS;
+		}
+	};
+	private final AtomicBoolean repaintQueued = new AtomicBoolean();
+	private int current;
+	private int cells;
+
+	FilmstripPanel(ThumbnailCache thumbnails, IntSupplier frameCount, IntPredicate annotated, IntConsumer onSelect) {
+		this.thumbnails = thumbnails;
+		this.frameCount = frameCount;
+		this.annotated = annotated;
+		setOpaque(true);
+		setToolTipText("");
+		addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				int index = e.getX() / CELL_WIDTH;
+				if (index < cells) {
+					onSelect.accept(index);
+				}
+			}
+		});
+		// Thumbnails arrive from the thumbnailer thread in bursts; one repaint per EDT turn is enough
+		thumbnails.addListener(index -> {
+			if (repaintQueued.compareAndSet(false, true)) {
+				SwingUtilities.invokeLater(() -> {
+					repaintQueued.set(false);
+					repaint();
+				});
+			}
+		});
+		refresh();
+	}
+
+	// Grows the strip to the frames extracted so far; called on the EDT
+	void refresh() {
+		int size = frameCount.getAsInt();
+		if (size != cells) {
+			cells = size;
+			revalidate();
+		}
+		repaint();
+	}
+
+	void setCurrent(int index) {
+		repaint(cellBounds(current));
+		current = index;
+		Rectangle bounds = cellBounds(index);
+		repaint(bounds);
+		scrollRectToVisible(bounds);
+	}
+
+	private Rectangle cellBounds(int index) {
+		return new Rectangle(index * CELL_WIDTH, 0, CELL_WIDTH, CELL_HEIGHT);
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		return new Dimension(Math.max(1, cells) * CELL_WIDTH, CELL_HEIGHT);
+	}
+
+	@Override
+	public String getToolTipText(MouseEvent e) {
+		int index = e.getX() / CELL_WIDTH;
+		return index < cells ? "Frame " + (index + 1) : null;
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(getSize());
+		}
+		g.setColor(BACKGROUND);
+		g.fillRect(clip.x, clip.y, clip.width, clip.height);
+		int first = Math.max(0, clip.x / CELL_WIDTH);
+		int last = Math.min(cells - 1, (clip.x + clip.width) / CELL_WIDTH);
+		for (int i = first; i <= last; i++) {
+			paintCell((Graphics2D) g, i);
+		}
+	}
+
+	private void paintCell(Graphics2D g, int index) {
+		int x = index * CELL_WIDTH + 4;
+		int y = 4;
+		int width = CELL_WIDTH - 8;
+		int height = CELL_HEIGHT - 24;
+		BufferedImage thumbnail = thumbnail(index);
+		if (thumbnail != null) {
+			// Letterboxed into the cell, e.g. portrait footage
+			double scale = Math.min(width / (double) thumbnail.getWidth(), height / (double) thumbnail.getHeight());
+			int w = (int) (thumbnail.getWidth() * scale);
+			int h = (int) (thumbnail.getHeight() * scale);
+			g.drawImage(thumbnail, x + (width - w) / 2, y + (height - h) / 2, w, h, null);
+		} else {
+			g.setColor(PLACEHOLDER);
+			g.fillRect(x, y, width, height);
+		}
+		if (index == current) {
+			g.setColor(CURRENT);
+			g.drawRect(x - 2, y - 2, width + 3, height + 3);
+			g.drawRect(x - 3, y - 3, width + 5, height + 5);
+		}
+		if (annotated.test(index)) {
+			g.setColor(ANNOTATED);
+			g.fillOval(x + width - 12, y + 4, 8, 8);
+		}
+		g.setColor(index == current ? CURRENT : Color.LIGHT_GRAY);
+		g.drawString(String.valueOf(index + 1), x, CELL_HEIGHT - 6);
+	}
+
+	// Only painted cells are decoded; a missing thumbnail is looked up again on the next repaint
+	private BufferedImage thumbnail(int index) {
+		BufferedImage thumbnail = decoded.get(index);
+		if (thumbnail == null) {
+			thumbnail = thumbnails.get(index);
+			if (thumbnail != null) {
+				decoded.put(index, thumbnail);
+			}
+		}
+		return thumbnail;
+	}
+
+	@Override
+	public Dimension getPreferredScrollableViewportSize() {
+		return new Dimension(8 * CELL_WIDTH, CELL_HEIGHT);
+	}
+
+	@Override
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return orientation == SwingConstants.HORIZONTAL ? CELL_WIDTH / 2 : 1;
+	}
+
+	@Override
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+		return orientation == SwingConstants.HORIZONTAL ? Math.max(CELL_WIDTH, visibleRect.width - CELL_WIDTH)
+				: visibleRect.height;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportWidth() {
+		return false;
+	}
+
+	@Override
+	public boolean getScrollableTracksViewportHeight() {
+		return true;
+	}
+}
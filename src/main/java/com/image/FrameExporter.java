@@ -0,0 +1,186 @@
+package com.image;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.annotation.AnnotationStore;
+import com.annotation.AnnotationStore.FrameSnapshot;
+import com.annotation.DatasetExporter;
+
+/**
+ * Writes a set of frames as images, encoding on one thread per core. By default the boxes are drawn onto the
+ * frames like saved frames ({@code annotated/}); with separate overlays the clean frame goes to {@code frames/}
+ * and the boxes to a transparent PNG of the same name in {@code overlays/}, so training images stay unmarked.
+ * Without boxes only the clean frames are written to {@code frames/}, e.g. as the images of a dataset.
+ */
+class FrameExporter {
+	private static final Logger logger = LoggerFactory.getLogger(FrameExporter.class);
+
+	static final class Result {
+		final int frames;
+		final int failed;
+		final long elapsedNanos;
+
+		Result(int frames, int failed, long elapsedNanos) {
+			this.frames = frames;
+			this.failed = failed;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			double seconds = elapsedNanos / 1e9;
+			return String.format(Locale.ROOT, "Exported %d frames in %.2f s (%.1f frames/s)", frames, seconds,
+					frames / Math.max(seconds, 1e-9)) + (failed > 0 ? ", " + failed + " failed" : "");
+		}
+	}
+
+	enum Boxes {
+		DRAWN, OVERLAY, NONE
+	}
+
+	private static final ImageEncoder OVERLAY_ENCODER = new ImageEncoder(ImageEncoder.Format.PNG, 1f);
+
+	private final IntFunction<BufferedImage> frames;
+	private final AnnotationStore store;
+	private final ImageEncoder encoder;
+	private final Boxes boxes;
+
+	FrameExporter(IntFunction<BufferedImage> frames, AnnotationStore store, ImageEncoder encoder,
+			boolean separateOverlay) {
+		this(frames, store, encoder, separateOverlay ? Boxes.OVERLAY : Boxes.DRAWN);
+	}
+
+	// frames returns the frame to write, masks applied; it is called from the encoding threads
+	FrameExporter(IntFunction<BufferedImage> frames, AnnotationStore store, ImageEncoder encoder, Boxes boxes) {
+		this.frames = frames;
+		this.store = store;
+		this.encoder = encoder;
+		this.boxes = boxes;
+	}
+
+	// Writes the annotated frames to <outputDirectory>/frames and a dataset in <outputDirectory> that points at
+	// them, so every image the dataset names exists under the same frame index as its boxes
+	static DatasetExporter.Result exportDataset(IntFunction<BufferedImage> frames, AnnotationStore store,
+			int imageWidth, int imageHeight, File outputDirectory) throws IOException, InterruptedException {
+		ImageEncoder encoder = new ImageEncoder(ImageEncoder.Format.JPEG, ImageEncoder.DEFAULT_JPEG_QUALITY);
+		Result written = new FrameExporter(frames, store, encoder, Boxes.NONE).export(store.annotatedFrames(),
+				outputDirectory);
+		if (written.failed > 0) {
+			throw new IOException(written.failed + " annotated frames could not be written");
+		}
+		return new DatasetExporter(store, imageWidth, imageHeight, new File(outputDirectory, "frames"),
+				encoder.getFormat().extension).export(outputDirectory);
+	}
+
+	Result export(int[] frameIndexes, File outputDirectory) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		File imageDirectory = new File(outputDirectory, boxes == Boxes.DRAWN ? "annotated" : "frames");
+		File overlayDirectory = new File(outputDirectory, "overlays");
+		imageDirectory.mkdirs();
+		if (boxes == Boxes.OVERLAY) {
+			overlayDirectory.mkdirs();
+		}
+		int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), frameIndexes.length));
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "frame-export-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		Dimension sample = null;
+		int written = 0;
+		int failed = 0;
+		try {
+			List<Future<Dimension>> results = new ArrayList<>(frameIndexes.length);
+			for (int frame : frameIndexes) {
+				results.add(pool.submit(() -> exportFrame(frame, imageDirectory, overlayDirectory)));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					Dimension size = results.get(i).get();
+					if (size == null) {
+						failed++;
+						continue;
+					}
+					sample = size;
+					written++;
+				} catch (ExecutionException e) {
+					logger.error("Could not export frame " + (frameIndexes[i] + 1), e.getCause());
+					failed++;
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		if (encoder.getFormat() == ImageEncoder.Format.RAW && sample != null) {
+			// Raw files have no header; the layout is described once per directory
+			Files.write(new File(imageDirectory, "raw.txt").toPath(), List.of("width=" + sample.width,
+					"height=" + sample.height, "channels=3", "order=BGR"), StandardCharsets.UTF_8);
+		}
+		Result result = new Result(written, failed, System.nanoTime() - start);
+		logger.info(result + " to " + imageDirectory + ".");
+		return result;
+	}
+
+	// Returns the size of the written frame, or null when it could not be read. Only the size outlives the call,
+	// so an export holds no more frames than there are threads.
+	private Dimension exportFrame(int frame, File imageDirectory, File overlayDirectory) throws IOException {
+		BufferedImage image = frames.apply(frame);
+		if (image == null) {
+			logger.error("Frame " + (frame + 1) + " is not available for export.");
+			return null;
+		}
+		String fileName = DatasetExporter.frameFileName(frame, encoder.getFormat().extension);
+		if (boxes == Boxes.NONE) {
+			encoder.write(image, new File(imageDirectory, fileName));
+			return new Dimension(image.getWidth(), image.getHeight());
+		}
+		FrameSnapshot snapshot = store.snapshot(frame);
+		List<Rectangle> rectangles = new ArrayList<>(snapshot.count);
+		List<String> labels = new ArrayList<>(snapshot.count);
+		List<Color> colors = new ArrayList<>(snapshot.count);
+		for (int i = 0; i < snapshot.count; i++) {
+			int c = i * 4;
+			rectangles.add(new Rectangle(snapshot.coords[c], snapshot.coords[c + 1], snapshot.coords[c + 2],
+					snapshot.coords[c + 3]));
+			labels.add(snapshot.categories[i].getLabel());
+			colors.add(snapshot.categories[i].getColor());
+		}
+		if (boxes == Boxes.OVERLAY) {
+			encoder.write(image, new File(imageDirectory, fileName));
+			BufferedImage overlay = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g2d = overlay.createGraphics();
+			SaveQueue.drawBoxes(g2d, rectangles, labels, colors);
+			g2d.dispose();
+			OVERLAY_ENCODER.write(overlay, new File(overlayDirectory, DatasetExporter.frameFileName(frame, "png")));
+		} else {
+			// The frame may be on screen or cached; boxes go onto a copy
+			BufferedImage annotated = SaveQueue.copyOf(image);
+			Graphics2D g2d = annotated.createGraphics();
+			SaveQueue.drawBoxes(g2d, rectangles, labels, colors);
+			g2d.dispose();
+			encoder.write(annotated, new File(imageDirectory, fileName));
+		}
+		return new Dimension(image.getWidth(), image.getHeight());
+	}
+}
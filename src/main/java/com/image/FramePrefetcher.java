@@ -0,0 +1,117 @@
+package com.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.video.FrameSource;
+
+/**
+ * Decodes and pre-scales the frames around the current one in the navigation direction, so Next/Previous
+ * are served from the caches instead of decoding on the EDT. Work for frames that fall out of the window
+ * (e.g. after a jump) is cancelled, and the window shrinks when the pyramids and visible tiles of the
+ * frames would not fit the render cache budget.
+ */
+class FramePrefetcher {
+	private static final Logger logger = LoggerFactory.getLogger(FramePrefetcher.class);
+
+	static final int DEFAULT_DISTANCE = 3;
+	// Decoding is serialised on the video anyway; the second thread overlaps scaling with decoding
+	private static final int THREADS = 2;
+
+	private final FrameSource frames;
+	private final RenderCache renderCache;
+	private final int distance;
+	private final ExecutorService executor;
+	private final Map<Integer, Future<?>> pending = new HashMap<>();
+	private double pendingScaleFactor;
+	private Rectangle pendingVisible;
+
+	FramePrefetcher(FrameSource frames, RenderCache renderCache, int distance) {
+		this.frames = frames;
+		this.renderCache = renderCache;
+		this.distance = distance;
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "frame-prefetch-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		});
+	}
+
+	// direction is +1 after Next and -1 after Previous; visible is the part of the frame in the viewport
+	synchronized void prefetch(int currentIndex, int direction, BufferedImage currentImage, double scaleFactor,
+			Rectangle visible) {
+		if (scaleFactor != pendingScaleFactor || !visible.equals(pendingVisible)) {
+			cancelAll(); // Zoomed or scrolled: tiles for the old view are of no use
+			pendingScaleFactor = scaleFactor;
+			pendingVisible = visible;
+		}
+		int size = frames.size();
+		int window = Math.min(distance, affordableFrames(currentImage, scaleFactor, visible));
+		Set<Integer> wanted = new LinkedHashSet<>();
+		for (int step = 1; step <= window && step < size; step++) {
+			wanted.add(Math.floorMod(currentIndex + direction * step, size));
+		}
+		// Keep the frame just behind warm too, annotators often step back once
+		if (size > 1 && window > 0) {
+			wanted.add(Math.floorMod(currentIndex - direction, size));
+		}
+		wanted.remove(currentIndex);
+
+		for (Iterator<Map.Entry<Integer, Future<?>>> it = pending.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Integer, Future<?>> entry = it.next();
+			if (entry.getValue().isDone() || !wanted.contains(entry.getKey())) {
+				entry.getValue().cancel(false);
+				it.remove();
+			}
+		}
+		for (int index : wanted) {
+			if (!pending.containsKey(index)) {
+				pending.put(index, executor.submit(() -> load(index, scaleFactor, visible)));
+			}
+		}
+	}
+
+	private void load(int index, double scaleFactor, Rectangle visible) {
+		try {
+			BufferedImage image = frames.getFrame(index);
+			if (image != null) {
+				renderCache.prepare(image, scaleFactor, visible);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Could not prefetch frame " + (index + 1), e);
+		}
+	}
+
+	// Leaves room for the frame on screen plus the prefetched ones within the render cache budget
+	private int affordableFrames(BufferedImage currentImage, double scaleFactor, Rectangle visible) {
+		if (currentImage == null) {
+			return distance;
+		}
+		long frameBytes = RenderCache.preparedBytes(currentImage, scaleFactor, visible);
+		return (int) Math.max(0, renderCache.getBudgetBytes() / Math.max(1, frameBytes) - 2);
+	}
+
+	synchronized void cancelAll() {
+		pending.values().forEach(future -> future.cancel(false));
+		pending.clear();
+	}
+
+	void shutdown() {
+		cancelAll();
+		executor.shutdownNow();
+	}
+}
@@ -6,6 +6,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GridLayout;
@@ -19,6 +20,8 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
 import java.awt.event.MouseWheelEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -28,6 +31,17 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
@@ -36,6 +50,7 @@ import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.ButtonGroup;
+import javax.swing.JCheckBox;
 import javax.swing.ImageIcon;
 import javax.swing.InputMap;
 import javax.swing.JButton;
@@ -45,10 +60,13 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
@@ -60,11 +78,19 @@ import javax.swing.text.DocumentFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.annotation.AnnotationJournal;
+import com.annotation.AnnotationStore;
+import com.metrics.FrameMetrics;
+import com.video.AutoMasker;
+import com.video.FrameSource;
+import com.video.ThumbnailCache;
+import com.video.VideoFrameExtractor;
+
 public class ImageDisplay extends JFrame {
     private JLabel imageLabel;
     private JLabel frameNumberLbl;
     private JTextField frameSearchField;
-    private List<BufferedImage> imageFrames;
+    private FrameSource imageFrames;
     private int currentIndex;
     private JPanel leftPanel;
     private JPanel rightPanel;
@@ -78,32 +104,79 @@ public class ImageDisplay extends JFrame {
     private BufferedImage currentImage;
     private Rectangle selection;
     private Point startPoint;
-    private List<Rectangle> annotations = new ArrayList<>();
-    private List<String> annotationLabels = new ArrayList<>();
-	private List<Rectangle> drawnRectangles = new ArrayList<>();
-	private List<String> confidenceLevels = new ArrayList<>();
-	private List<String> frameQualities = new ArrayList<>(); // Store frame qualities separately
-	private List<String> azimustList = new ArrayList<>();
-	private List<String> angleList = new ArrayList<>();
-	private List<String> positionList = new ArrayList<>();
-	private List<String> heightList = new ArrayList<>();
+    // Boxes of every frame in the session, kept when navigating between frames
+    private final AnnotationStore annotationStore = new AnnotationStore();
     private static final Logger logger = LoggerFactory.getLogger(ImageDisplay.class);
-    private Map<String, Color> categoryColors = new HashMap<>() {{
-        put("pedestrian", Color.RED);
-        put("construction vehicle", Color.BLUE);
-        put("pile", Color.GREEN);
-        put("bucket", Color.ORANGE);
-        put("fork", Color.ORANGE);
-        put("stone", Color.YELLOW);
-        put("truck", Color.MAGENTA);
-        put("car", Color.CYAN);
-    }};
 
     private double scaleFactor = 1.0;
+    private static final Font ANNOTATION_FONT = new Font("Arial", Font.BOLD, 16);
+    private static final BasicStroke DEFAULT_STROKE = new BasicStroke(1);
+    private static final BasicStroke SELECTED_STROKE = new BasicStroke(3);
+    private static final BasicStroke SUGGESTION_STROKE = new BasicStroke(2, BasicStroke.CAP_BUTT,
+            BasicStroke.JOIN_MITER, 10, new float[] { 6, 4 }, 0);
+    // A detection overlapping a mask of its frame this much is already masked
+    private static final double AUTO_MASK_OVERLAP = 0.5;
+    // Drags smaller than this are clicks
+    private static final int CLICK_SIZE = 3;
+    private int labelWidth;
+    private int selectedBox = -1;
+    private final RenderCache renderCache = new RenderCache();
+    private FramePrefetcher prefetcher;
+    private BoxPropagator propagator;
+    private JLabel statusLabel;
+    private JProgressBar extractionProgress;
+    // Producer updates are folded into one pending EDT refresh
+    private final AtomicBoolean progressRefreshQueued = new AtomicBoolean();
+    private volatile double sourceProgress;
+    private volatile boolean sourceComplete;
+    private final SaveQueue saveQueue = new SaveQueue(SaveQueue.DEFAULT_CAPACITY, this::savedFrame,
+            new SaveQueue.Listener() {
+        @Override
+        public void saved(SaveQueue.SaveRequest request, File imageFile, File textFile) {
+            saveCompleted(request, imageFile);
+        }
+
+        @Override
+        public void failed(SaveQueue.SaveRequest request, IOException e) {
+            saveFailed(request, e);
+        }
+    });
+    private int navigationDirection = 1;
+    // Set when the user moves to another frame, recorded once that frame is painted; EDT only
+    private long navigationStart;
+    private FilmstripPanel filmstrip;
+    private MaskingEngine maskingEngine = new MaskingEngine(MaskingEngine.MaskMode.BLUR);
+    private AnnotationJournal annotationJournal;
+    // Frames with masks of this or an earlier session, exported along with the annotated ones
+    private final Set<Integer> maskedFrames = ConcurrentHashMap.newKeySet();
+    // Every mask by frame, in the order drawn. The source may decode a frame again at any time, so the masks are
+    // replayed for each decoded image instead of keeping masked images beyond the source's cache.
+    private final Map<Integer, List<AnnotationJournal.Mask>> frameMasks = new HashMap<>();
+    // The masked copy of each decoded image that has masks; weak, so copies go with their evicted images
+    private final Map<BufferedImage, MaskedFrame> maskedCopies = new WeakHashMap<>();
+    private final List<String> maskDetectors;
+    private final AtomicBoolean autoMasking = new AtomicBoolean();
+    // Frames the Auto Mask button has already run detection on
+    private final Set<Integer> autoMaskedFrames = ConcurrentHashMap.newKeySet();
+
+    public ImageDisplay(FrameSource images, String videoName) {
+        this(images, videoName, "");
+    }
+
+    public ImageDisplay(FrameSource images, String videoName, String sessionKey) {
+        this(images, videoName, sessionKey, AutoMasker.DEFAULT_DETECTORS);
+    }
 
-    public ImageDisplay(List<BufferedImage> images, String videoName) {
+    // sessionKey tells journals of the same video apart, e.g. the sampling settings that decide the frame indexes;
+    // maskDetectors are the cascades of the Auto Mask button
+    public ImageDisplay(FrameSource images, String videoName, String sessionKey, List<String> maskDetectors) {
         this.imageFrames = images;
+        this.maskDetectors = maskDetectors;
+        openJournal(videoName, sessionKey);
         this.currentIndex = 0;
+        this.prefetcher = new FramePrefetcher(images, renderCache, FramePrefetcher.DEFAULT_DISTANCE);
+        this.propagator = new BoxPropagator(images, annotationStore, BoxPropagator.DEFAULT_DISTANCE,
+                this::suggestionsFound);
 
         setTitle("Annotator");
         try {
@@ -112,6 +185,18 @@ public class ImageDisplay extends JFrame {
             e.printStackTrace();
         }
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                // Runs before EXIT_ON_CLOSE, so saves still in the queue reach the disk
+                prefetcher.shutdown();
+                propagator.shutdown();
+                saveQueue.shutdown(30, TimeUnit.SECONDS);
+                if (annotationJournal != null) {
+                    annotationJournal.close();
+                }
+            }
+        });
         setLayout(new BorderLayout());
 
         leftPanel = new JPanel();
@@ -141,7 +226,17 @@ public class ImageDisplay extends JFrame {
 
         leftPanel.add(frameNumberLbl);
         leftPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+        JComboBox<MaskingEngine.MaskMode> maskModeComboBox = new JComboBox<>(MaskingEngine.MaskMode.values());
+        maskModeComboBox.setMaximumSize(new Dimension(150, 30));
+        maskModeComboBox.setAlignmentX(LEFT_ALIGNMENT);
+        maskModeComboBox.addActionListener(
+                e -> maskingEngine = new MaskingEngine((MaskingEngine.MaskMode) maskModeComboBox.getSelectedItem()));
+
         leftPanel.add(blurButton);
+        leftPanel.add(maskModeComboBox);
+        JButton autoMaskButton = createButtonWithShortcut("Auto Mask", e -> autoMaskFrames(), 'K');
+        autoMaskButton.setAlignmentX(LEFT_ALIGNMENT);
+        leftPanel.add(autoMaskButton);
         leftPanel.add(annotationButton);
         leftPanel.add(Box.createRigidArea(new Dimension(0, 5)));
         leftPanel.add(goPanel);
@@ -152,26 +247,22 @@ public class ImageDisplay extends JFrame {
         imageLabel = new JLabel() {
             @Override
             protected void paintComponent(Graphics g) {
+                long start = System.nanoTime();
                 super.paintComponent(g);
                 if (currentImage != null) {
-                    int width = (int) (currentImage.getWidth() * scaleFactor);
-                    int height = (int) (currentImage.getHeight() * scaleFactor);
-                    g.drawImage(currentImage.getScaledInstance(width, height, Image.SCALE_SMOOTH), 0, 0, this);
+                    renderCache.paint(g, currentImage, renderScale(), this::repaint);
                 }
 
+                paintAnnotations((Graphics2D) g);
+
                 if (selection != null) {
                     g.setColor(Color.YELLOW);
                     g.drawRect(selection.x, selection.y, selection.width, selection.height);
                 }
-
-                for (int i = 0; i < annotations.size(); i++) {
-                    Rectangle annotation = annotations.get(i);
-                    String label = annotationLabels.get(i);
-                    g.setColor(categoryColors.getOrDefault(label, Color.WHITE));
-                    g.drawRect((int) (annotation.x * scaleFactor), (int) (annotation.y * scaleFactor),
-                            (int) (annotation.width * scaleFactor), (int) (annotation.height * scaleFactor));
-                    g.setFont(new Font("Arial", Font.BOLD, 16));
-                    g.drawString(label, (int) (annotation.x * scaleFactor), (int) ((annotation.y) * scaleFactor));
+                FrameMetrics.recordSince(FrameMetrics.PAINT, start);
+                if (navigationStart != 0) {
+                    FrameMetrics.recordSince(FrameMetrics.NAVIGATION, navigationStart);
+                    navigationStart = 0;
                 }
             }
         };
@@ -192,15 +283,38 @@ public class ImageDisplay extends JFrame {
         bottomPanel.add(createButtonWithShortcut("Save", e -> saveImage(videoName), 'S'));
         bottomPanel.add(createButtonWithShortcut("Undo", e -> undoLastAction(), 'U'));
         bottomPanel.add(createButtonWithShortcut("Reset", e -> resetAnnotations(), 'R'));
+        bottomPanel.add(createButtonWithShortcut("Accept Tracked", e -> acceptSuggestions(), 'T'));
         bottomPanel.add(createButtonWithShortcut("Zoom In", e -> zoomIn(), 'I'));
         bottomPanel.add(createButtonWithShortcut("Zoom Out", e -> zoomOut(), 'O'));
-
-        add(bottomPanel, BorderLayout.SOUTH);
+        bottomPanel.add(createButtonWithShortcut("Export", e -> exportDataset(videoName), 'E'));
+        bottomPanel.add(createButtonWithShortcut("Export Frames", e -> exportFrames(videoName), 'F'));
+        statusLabel = new JLabel(" ");
+        bottomPanel.add(statusLabel);
+        extractionProgress = new JProgressBar(0, 1000);
+        extractionProgress.setStringPainted(true);
+        extractionProgress.setString("Extracting frames...");
+        extractionProgress.setVisible(!images.isComplete());
+        bottomPanel.add(extractionProgress);
+
+        ThumbnailCache thumbnails = images.getThumbnails();
+        if (thumbnails != null) {
+            filmstrip = new FilmstripPanel(thumbnails, images::size, i -> annotationStore.count(i) > 0,
+                    this::showFrame);
+            JScrollPane filmstripScroll = new JScrollPane(filmstrip, JScrollPane.VERTICAL_SCROLLBAR_NEVER,
+                    JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+            JPanel southPanel = new JPanel(new BorderLayout());
+            southPanel.add(filmstripScroll, BorderLayout.CENTER);
+            southPanel.add(bottomPanel, BorderLayout.SOUTH);
+            add(southPanel, BorderLayout.SOUTH);
+        } else {
+            add(bottomPanel, BorderLayout.SOUTH);
+        }
 
         setExtendedState(JFrame.MAXIMIZED_BOTH);
         setVisible(true);
 
         SwingUtilities.invokeLater(this::updateImage);
+        imageFrames.addListener(this::framesAdded);
 
         imageLabel.addMouseListener(new MouseAdapter() {
             @Override
@@ -211,13 +325,18 @@ public class ImageDisplay extends JFrame {
 
             @Override
             public void mouseReleased(MouseEvent e) {
-                if (selection != null) {
+                if (selection != null && selection.width < CLICK_SIZE && selection.height < CLICK_SIZE) {
+                    // A click rather than a drag picks the box under the pointer
+                    selectedBox = annotationStore.hitTest(currentIndex, (int) (e.getX() / scaleFactor),
+                            (int) (e.getY() / scaleFactor));
+                    selection = null;
+                    imageLabel.repaint();
+                } else if (selection != null) {
                     Rectangle scaledSelection = scaleRectangleToOriginal(selection);
                     if (blurButton.isSelected()) {
                         repaint();
                         blurSelection(scaledSelection);
                     } else {
-                        annotations.add(new Rectangle(scaledSelection));
                         getAnnotationPanel(scaledSelection);
                     }
                     selection = null;
@@ -232,9 +351,12 @@ public class ImageDisplay extends JFrame {
                 if (selection != null) {
                     int x = Math.min(Math.max(e.getX(), 0), imageLabel.getWidth());
                     int y = Math.min(Math.max(e.getY(), 0), imageLabel.getHeight());
+                    Rectangle dirty = new Rectangle(selection);
                     selection.setBounds(Math.min(startPoint.x, x), Math.min(startPoint.y, y),
                             Math.abs(startPoint.x - x), Math.abs(startPoint.y - y));
-                    repaint();
+                    // Only the area under the old and new outline changes; drawRect covers width + 1 pixels
+                    dirty.add(selection);
+                    imageLabel.repaint(dirty.x, dirty.y, dirty.width + 1, dirty.height + 1);
                 }
             }
         });
@@ -248,8 +370,81 @@ public class ImageDisplay extends JFrame {
             }
         });
 
+        imageLabel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("DELETE"), "deleteBox");
+        imageLabel.getActionMap().put("deleteBox", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (selectedBox >= 0) {
+                    annotationStore.remove(currentIndex, selectedBox);
+                    propagator.propagate(currentIndex);
+                    selectedBox = -1;
+                    imageLabel.repaint();
+                }
+            }
+        });
+
         updateFrameNumber(currentIndex);
     }
+
+    // Draws only the boxes whose outline or label can reach the clip, so scrolled-out boxes cost nothing
+    private void paintAnnotations(Graphics2D g) {
+        g.setFont(ANNOTATION_FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        if (labelWidth == 0) {
+            for (AnnotationStore.Category category : AnnotationStore.Category.values()) {
+                labelWidth = Math.max(labelWidth, metrics.stringWidth(category.getLabel()));
+            }
+        }
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, imageLabel.getWidth(), imageLabel.getHeight());
+        }
+        // Labels sit above the top-left corner, so boxes left of or below the clip may still show theirs
+        int left = (int) Math.floor((clip.x - labelWidth) / scaleFactor) - 1;
+        int top = (int) Math.floor(clip.y / scaleFactor) - 1;
+        int right = (int) Math.ceil((clip.x + clip.width) / scaleFactor) + 1;
+        int bottom = (int) Math.ceil((clip.y + clip.height + metrics.getAscent()) / scaleFactor) + 1;
+        Rectangle annotation = new Rectangle();
+        for (int i : annotationStore.query(currentIndex, new Rectangle(left, top, right - left, bottom - top))) {
+            annotationStore.getBox(currentIndex, i, annotation);
+            AnnotationStore.Category category = annotationStore.getCategory(currentIndex, i);
+            g.setColor(category.getColor());
+            g.setStroke(i == selectedBox ? SELECTED_STROKE : DEFAULT_STROKE);
+            g.drawRect((int) (annotation.x * scaleFactor), (int) (annotation.y * scaleFactor),
+                    (int) (annotation.width * scaleFactor), (int) (annotation.height * scaleFactor));
+            g.drawString(category.getLabel(), (int) (annotation.x * scaleFactor), (int) ((annotation.y) * scaleFactor));
+        }
+        // Boxes tracked from an earlier frame, dashed with their confidence until they are accepted
+        g.setStroke(SUGGESTION_STROKE);
+        for (BoxPropagator.Suggestion suggestion : propagator.getSuggestions(currentIndex)) {
+            Rectangle box = suggestion.box;
+            g.setColor(suggestion.category.getColor());
+            g.drawRect((int) (box.x * scaleFactor), (int) (box.y * scaleFactor), (int) (box.width * scaleFactor),
+                    (int) (box.height * scaleFactor));
+            g.drawString(suggestion.category.getLabel() + " " + Math.round(suggestion.confidence * 100) + "%",
+                    (int) (box.x * scaleFactor), (int) (box.y * scaleFactor));
+        }
+        g.setStroke(DEFAULT_STROKE);
+    }
+
+    // Called from the propagation threads
+    private void suggestionsFound(int frame) {
+        SwingUtilities.invokeLater(() -> {
+            if (frame == currentIndex) {
+                imageLabel.repaint();
+            }
+        });
+    }
+
+    private void acceptSuggestions() {
+        int added = propagator.accept(currentIndex);
+        statusLabel.setText(added == 0 ? "No tracked boxes to accept" : "Accepted " + added + " tracked boxes");
+        if (added > 0) {
+            // The accepted boxes carry on to the frames after this one
+            propagator.propagate(currentIndex);
+        }
+        imageLabel.repaint();
+    }
     
     private void zoomIn() {
         scaleFactor *= 1.1; // Increase scale factor by 10%
@@ -278,23 +473,58 @@ public class ImageDisplay extends JFrame {
 //	}
 	
     private void updateImage() {
-        currentImage = imageFrames.get(currentIndex);
+        currentImage = maskedFrame(currentIndex);
         if (currentImage != null) {
-            int width = (int) (currentImage.getWidth() * scaleFactor);
-            int height = (int) (currentImage.getHeight() * scaleFactor);
-            Image scaledImage = currentImage.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-            imageLabel.setIcon(new ImageIcon(scaledImage));
-            imageLabel.setText("");
+            Dimension original = originalSize(currentImage);
+            int width = (int) (original.width * scaleFactor);
+            int height = (int) (original.height * scaleFactor);
+            // The frame is painted tile by tile from renderCache; the label only needs to know its size
             imageLabel.setPreferredSize(new Dimension(width, height));
         }
         updateFrameNumber(currentIndex);
+        if (filmstrip != null) {
+            filmstrip.setCurrent(currentIndex);
+        }
         scrollPane.revalidate();
         scrollPane.repaint();
+        if (currentImage != null) {
+            prefetcher.prefetch(currentIndex, navigationDirection, currentImage, renderScale(),
+                    imageLabel.getVisibleRect());
+        }
+    }
+
+    // Boxes, masks and scaleFactor are in video pixels, of which a proxy frame has fewer
+    private Dimension originalSize(BufferedImage image) {
+        Dimension original = imageFrames.getOriginalSize();
+        return original != null ? original : new Dimension(image.getWidth(), image.getHeight());
+    }
+
+    // Zoom of the frame itself, so a proxy covers the same area as the full resolution frame
+    private double renderScale() {
+        return scaleFactor * originalSize(currentImage).width / currentImage.getWidth();
     }
 	
 	private void updateFrameNumber(int frameNumber) {
 		int frameNum = frameNumber + 1;
-		frameNumberLbl.setText(" Frame Number: "+ frameNum + "/" + imageFrames.size());
+		frameNumberLbl.setText(" Frame Number: "+ frameNum + "/" + imageFrames.size()
+				+ (imageFrames.isComplete() ? "" : "+"));
+	}
+
+	// Called by the frame producer; the counter and progress bar grow while extraction continues
+	private void framesAdded(int size, double progress, boolean complete) {
+		sourceProgress = progress;
+		sourceComplete = complete;
+		if (progressRefreshQueued.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(() -> {
+				progressRefreshQueued.set(false);
+				extractionProgress.setValue((int) (sourceProgress * 1000));
+				extractionProgress.setVisible(!sourceComplete);
+				updateFrameNumber(currentIndex);
+				if (filmstrip != null) {
+					filmstrip.refresh();
+				}
+			});
+		}
 	}
 	
 	private JButton createButtonWithShortcut(String text, ActionListener action, char shortcut) {
@@ -338,6 +568,8 @@ public class ImageDisplay extends JFrame {
 	    try {
 	        int frameNumber = Integer.parseInt(input);
 	        if (frameNumber >= 1 && frameNumber <= imageFrames.size()) {
+	            navigationStart = System.nanoTime();
+	            navigationDirection = frameNumber - 1 < currentIndex ? -1 : 1;
 	            currentIndex = frameNumber - 1; // Adjust for zero-based index
 	            updateImage(); // Update the image to the specified frame
 	        } else {
@@ -346,61 +578,31 @@ public class ImageDisplay extends JFrame {
 	    } catch (NumberFormatException e) {
 	        JOptionPane.showMessageDialog(this, "Please enter a valid frame number.");
 	    }
-	    resetAnnotations();
+	    selection = null;
+	    selectedBox = -1;
 	}
 	
 	private void resetAnnotations() {
-	    annotations.clear();
-	    drawnRectangles.clear();
-	    annotationLabels.clear();
-	    confidenceLevels.clear();
-	    frameQualities.clear();
-	    azimustList.clear();
-		angleList.clear();
-		positionList.clear();
-		heightList.clear();
+	    annotationStore.clear(currentIndex);
+	    propagator.propagate(currentIndex);
 	    selection = null;
+	    selectedBox = -1;
 	    updateImage();
 	    revalidate();
 	    repaint();
 	}
 	
 	private void undoLastAction() {
-	    if (!annotations.isEmpty()) {
-	        annotations.remove(annotations.size() - 1);
-	    }
-	    if (!drawnRectangles.isEmpty()) {
-	        drawnRectangles.remove(drawnRectangles.size() - 1);
-	    }
-	    if (!annotationLabels.isEmpty()) {
-	        annotationLabels.remove(annotationLabels.size() - 1);
-	    }
-	    if (!confidenceLevels.isEmpty()) {
-	        confidenceLevels.remove(confidenceLevels.size() - 1);
-	    }
-	    if (!frameQualities.isEmpty()) {
-	        frameQualities.remove(frameQualities.size() - 1);
-	    }
-	    if (!azimustList.isEmpty()) {
-	    	azimustList.remove(azimustList.size() - 1);
-	    }
-	    if (!angleList.isEmpty()) {
-	    	angleList.remove(angleList.size() - 1);
-	    }
-	    if (!positionList.isEmpty()) {
-	    	positionList.remove(positionList.size() - 1);
-	    }
-	    if (!heightList.isEmpty()) {
-	    	heightList.remove(heightList.size() - 1);
-	    }
+	    annotationStore.undo(currentIndex);
+	    propagator.propagate(currentIndex);
+	    selectedBox = -1;
 	    updateImage();
 	    repaint();
 	}
 
 
 	private void getAnnotationPanel(Rectangle scaledSelection) {
-		String[] options = { "pedestrian", "construction vehicle", "pile", "bucket", "fork", "stone", "truck", "car" };
-		JComboBox<String> annotationComboBox = new JComboBox<>(options); // Using JComboBox for better selection
+		JComboBox<AnnotationStore.Category> annotationComboBox = new JComboBox<>(AnnotationStore.Category.values()); // Using JComboBox for better selection
 
 		// Create the main panel for all selections
 		JPanel panel = new JPanel();
@@ -471,20 +673,15 @@ public class ImageDisplay extends JFrame {
 		int result = JOptionPane.showConfirmDialog(null, panel,
 				"Select Annotation, Quality, Confidence, and Sensor Position", JOptionPane.OK_CANCEL_OPTION);
 		if (result == JOptionPane.OK_OPTION) {
-			String label = (String) annotationComboBox.getSelectedItem();
-			if (label != null) {
-				annotations.add(new Rectangle(scaledSelection));
-				annotationLabels.add(label);
-				String selectedQuality = clearButton.isSelected() ? "Clear" : "Blur";
-				frameQualities.add(selectedQuality); // Save the selected quality
-
-				// Add confidence level for this annotation
-				confidenceLevels.add(highConfidenceButton.isSelected() ? "High"
-						: mediumConfidenceButton.isSelected() ? "Medium" : "Low");
-				azimustList.add(azimuthField.getText());
-				angleList.add(angleField.getText());
-				positionList.add(positionField.getText());
-				heightList.add(heightField.getText());
+			AnnotationStore.Category category = (AnnotationStore.Category) annotationComboBox.getSelectedItem();
+			if (category != null) {
+				annotationStore.add(currentIndex, scaledSelection, category,
+						highConfidenceButton.isSelected() ? AnnotationStore.Confidence.HIGH
+								: mediumConfidenceButton.isSelected() ? AnnotationStore.Confidence.MEDIUM
+										: AnnotationStore.Confidence.LOW,
+						clearButton.isSelected() ? AnnotationStore.Quality.CLEAR : AnnotationStore.Quality.BLUR,
+						azimuthField.getText(), angleField.getText(), positionField.getText(), heightField.getText());
+				propagator.propagate(currentIndex);
 			}
 		}
 	}
@@ -523,155 +720,413 @@ public class ImageDisplay extends JFrame {
 	}
 
 	private void showPreviousImage() {
+		navigationStart = System.nanoTime();
 		currentIndex--;
+		navigationDirection = -1;
 		if (currentIndex < 0) {
-			currentIndex = imageFrames.size() - 1;
+			// Until extraction is done there is no last frame to wrap around to
+			currentIndex = imageFrames.isComplete() ? imageFrames.size() - 1 : 0;
 		}
-		clearAnnotations();
+		selection = null;
+		selectedBox = -1;
 		updateImage();
 		updateFrameNumber(currentIndex);
 	}
 
+	// Jump from the filmstrip
+	private void showFrame(int index) {
+		navigationStart = System.nanoTime();
+		navigationDirection = index < currentIndex ? -1 : 1;
+		currentIndex = index;
+		selection = null;
+		selectedBox = -1;
+		updateImage();
+	}
+
 	private void showNextImage() {
+		navigationStart = System.nanoTime();
 		currentIndex++;
+		navigationDirection = 1;
 		if (currentIndex >= imageFrames.size()) {
-			currentIndex = 0;
+			currentIndex = imageFrames.isComplete() ? 0 : imageFrames.size() - 1;
 		}
-		clearAnnotations();
+		selection = null;
+		selectedBox = -1;
 		updateImage();
 		updateFrameNumber(currentIndex);
 	}
 
-	private void clearAnnotations() {
-		annotations.clear();
-		annotationLabels.clear();
-		confidenceLevels.clear(); // Clear confidence levels
-		frameQualities.clear(); // Clear frame qualities
+	private void saveImage(String videoName) {
+		if (currentImage == null) {
+			return;
+		}
+		StringBuilder annotationDetails = new StringBuilder();
+		annotationDetails.append(
+				"Frame Number; Annotation; Top-left; Bottom-right; Frame Quality; Confidence Level; Azimuth; Angle_of_inclination; position_on_the_vehicle; height_of_mounting\n");
+
+		List<Rectangle> boxes = new ArrayList<>();
+		List<String> labels = new ArrayList<>();
+		List<Color> colors = new ArrayList<>();
+		for (int i = 0; i < annotationStore.count(currentIndex); i++) {
+			Rectangle annotation = annotationStore.getBox(currentIndex, i);
+			AnnotationStore.Category category = annotationStore.getCategory(currentIndex, i);
+
+			boxes.add(annotation);
+			labels.add(category.getLabel());
+			colors.add(category.getColor());
+
+			// Append annotation details including confidence level
+			annotationDetails.append((currentIndex + 1) + "; " + category.getLabel() + "; (" + annotation.x + ", "
+					+ annotation.y + "); (" + (annotation.x + annotation.width) + ", " + (annotation.y + annotation.height)
+					+ "); " + annotationStore.getQuality(currentIndex, i) + "; "
+					+ annotationStore.getConfidence(currentIndex, i) + "; " + annotationStore.getAzimuth(currentIndex, i)
+					+ "; " + annotationStore.getAngle(currentIndex, i) + "; " + annotationStore.getPosition(currentIndex, i)
+					+ "; " + annotationStore.getHeight(currentIndex, i) + "\n");
+		}
+
+		// Snapshot the annotations and masks; the writer decodes the frame and draws the boxes onto its own copy
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd_HH_mm_ss");
+		SaveQueue.SaveRequest request = new SaveQueue.SaveRequest(videoName, currentIndex,
+				LocalDateTime.now().format(formatter), masksOf(currentIndex), boxes, labels, colors,
+				annotationDetails.toString());
+		statusLabel.setText("Saving frame " + request.frameNumber + "...");
+		saveQueue.submit(request);
+	}
+
+	// Writes YOLO, COCO and VOC files for every annotated frame of the session, next to the extracted frames
+	private void exportDataset(String videoName) {
+		if (currentImage == null || annotationStore.totalCount() == 0) {
+			statusLabel.setText("Nothing to export");
+			return;
+		}
+		File datasetDirectory = new File(VideoFrameExtractor.videoDirectory(null, videoName), "dataset");
+		Dimension original = originalSize(currentImage);
+		statusLabel.setText("Exporting dataset...");
+		Thread thread = new Thread(() -> {
+			String status;
+			try {
+				// The images go along, masked and at full resolution, numbered like the annotations
+				status = FrameExporter.exportDataset(this::fullResolutionFrame, annotationStore, original.width,
+						original.height, datasetDirectory).toString();
+			} catch (IOException | RuntimeException e) {
+				logger.error("Dataset export failed", e);
+				status = "Export failed: " + e.getMessage();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				status = "Export interrupted";
+			}
+			String message = status;
+			SwingUtilities.invokeLater(() -> statusLabel.setText(message));
+		}, "dataset-export");
+		thread.setDaemon(true);
+		thread.start();
 	}
 
-	private void saveImage(String videoName) {
-		try {
-			BufferedImage imageToSave = currentImage;
-			Graphics2D g2d = imageToSave.createGraphics();
-
-			StringBuilder annotationDetails = new StringBuilder();
-			annotationDetails.append(
-					"Frame Number; Annotation; Top-left; Bottom-right; Frame Quality; Confidence Level; Azimuth; Angle_of_inclination; position_on_the_vehicle; height_of_mounting\n");
-
-			// draw rectangles
-			for (int i = 0; i < annotations.size(); i++) {
-				Rectangle annotation = annotations.get(i);
-				String label = annotationLabels.get(i);
-				String confidence = confidenceLevels.get(i); // Get the confidence level
-				String frameQuality = frameQualities.get(i); // Get the frame quality for this annotation
-				String azimuth = azimustList.get(i);
-				String angle = angleList.get(i);
-				String position = positionList.get(i);
-				String height_of_mounting = heightList.get(i);
-
-				g2d.setColor(categoryColors.getOrDefault(label, Color.WHITE));
-				g2d.setStroke(new BasicStroke(4));
-				g2d.drawRect(annotation.x, annotation.y, annotation.width, annotation.height);
-				g2d.setFont(new Font("Arial", Font.BOLD, 50));
-				g2d.drawString(label, annotation.x, annotation.y - 5);
-
-				// Append annotation details including confidence level
-				annotationDetails.append((currentIndex + 1) + "; " + label + "; (" + annotation.x + ", " + annotation.y
-						+ "); (" + (annotation.x + annotation.width) + ", " + (annotation.y + annotation.height) + "); "
-						+ frameQuality + "; " + confidence + "; " + azimuth + "; " + angle + "; " + position + "; "
-						+ height_of_mounting + "\n");
+	// Writes every annotated or masked frame as images, with the options chosen in a dialog
+	private void exportFrames(String videoName) {
+		Set<Integer> frames = new TreeSet<>(maskedFrames);
+		for (int frame : annotationStore.annotatedFrames()) {
+			frames.add(frame);
+		}
+		if (frames.isEmpty()) {
+			statusLabel.setText("Nothing to export");
+			return;
+		}
+		JComboBox<ImageEncoder.Format> formatComboBox = new JComboBox<>(ImageEncoder.Format.values());
+		JSpinner qualitySpinner = new JSpinner(
+				new SpinnerNumberModel(Math.round(ImageEncoder.DEFAULT_JPEG_QUALITY * 100), 1, 100, 5));
+		JCheckBox overlayCheckBox = new JCheckBox("Clean frames with separate box overlays");
+		JPanel panel = new JPanel(new GridLayout(0, 2));
+		panel.add(new JLabel("Format:"));
+		panel.add(formatComboBox);
+		panel.add(new JLabel("JPEG quality (%):"));
+		panel.add(qualitySpinner);
+		panel.add(overlayCheckBox);
+		if (JOptionPane.showConfirmDialog(this, panel, "Export " + frames.size() + " frames",
+				JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION) {
+			return;
+		}
+		ImageEncoder encoder = new ImageEncoder((ImageEncoder.Format) formatComboBox.getSelectedItem(),
+				((Number) qualitySpinner.getValue()).intValue() / 100f);
+		FrameExporter exporter = new FrameExporter(this::fullResolutionFrame, annotationStore, encoder,
+				overlayCheckBox.isSelected());
+		int[] indexes = frames.stream().mapToInt(Integer::intValue).toArray();
+		File videoDirectory = VideoFrameExtractor.videoDirectory(null, videoName);
+		statusLabel.setText("Exporting " + indexes.length + " frames...");
+		Thread thread = new Thread(() -> {
+			String status;
+			try {
+				status = exporter.export(indexes, videoDirectory).toString();
+			} catch (IOException | RuntimeException e) {
+				logger.error("Frame export failed", e);
+				status = "Export failed: " + e.getMessage();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				status = "Export interrupted";
 			}
+			String message = status;
+			SwingUtilities.invokeLater(() -> statusLabel.setText(message));
+		}, "frame-export");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void saveCompleted(SaveQueue.SaveRequest request, File imageFile) {
+		SwingUtilities.invokeLater(() -> statusLabel.setText("Saved frame " + request.frameNumber + ": "
+				+ imageFile.getName() + pendingSaves()));
+	}
+
+	private void saveFailed(SaveQueue.SaveRequest request, IOException e) {
+		SwingUtilities.invokeLater(() -> statusLabel.setText("Could not save frame " + request.frameNumber + ": "
+				+ e.getMessage() + pendingSaves()));
+	}
+
+	private String pendingSaves() {
+		int pending = saveQueue.pending();
+		return pending > 0 ? " (" + pending + " pending)" : "";
+	}
+
+	private void blurSelection(Rectangle rect) {
+		AnnotationJournal.Mask mask = new AnnotationJournal.Mask(currentIndex, rect, maskingEngine.getMode().name(),
+				maskingEngine.getStrength(), maskingEngine.getFill().getRGB());
+		if (annotationJournal != null) {
+			annotationJournal.recordMask(currentIndex, rect, mask.mode, mask.strength, mask.fillRgb);
+		}
+		synchronized (frameMasks) {
+			frameMasks.computeIfAbsent(currentIndex, frame -> new ArrayList<>()).add(mask);
+		}
+		maskedFrames.add(currentIndex);
+		long start = System.nanoTime();
+		maskedFrame(currentIndex);
+		FrameMetrics.recordSince(FrameMetrics.MASKING, start);
+		updateImage(); // Update the displayed image
+	}
 
-			g2d.dispose();
+	// Blurs the faces and plates of every frame found so far. Detection runs on one thread per core; the regions
+	// become Gaussian masks like drawn ones, applied when a frame is shown, saved or exported.
+	private void autoMaskFrames() {
+		if (!autoMasking.compareAndSet(false, true)) {
+			return;
+		}
+		int frames = imageFrames.size();
+		statusLabel.setText("Auto-masking " + frames + " frames...");
+		Thread thread = new Thread(() -> {
+			String status;
+			ExecutorService executor = null;
+			try {
+				AutoMasker masker = new AutoMasker(maskDetectors);
+				AtomicInteger threadNumber = new AtomicInteger();
+				executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+					Thread worker = new Thread(runnable, "auto-mask-" + threadNumber.incrementAndGet());
+					worker.setDaemon(true);
+					return worker;
+				});
+				List<Future<Integer>> results = new ArrayList<>();
+				for (int i = 0; i < frames; i++) {
+					int index = i;
+					results.add(executor.submit(() -> autoMaskFrame(masker, index)));
+				}
+				int masked = 0;
+				for (Future<Integer> result : results) {
+					masked += result.get();
+				}
+				status = "Masked " + masked + " regions in " + frames + " frames";
+			} catch (IOException e) {
+				logger.error("Could not load the auto-masking detectors", e);
+				status = "Auto-masking failed: " + e.getMessage();
+			} catch (ExecutionException e) {
+				logger.error("Auto-masking failed", e.getCause());
+				status = "Auto-masking failed: " + e.getCause().getMessage();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				status = "Auto-masking interrupted";
+			} finally {
+				if (executor != null) {
+					executor.shutdownNow();
+				}
+				autoMasking.set(false);
+			}
+			String message = status;
+			SwingUtilities.invokeLater(() -> {
+				statusLabel.setText(message);
+				updateImage();
+			});
+		}, "auto-mask");
+		thread.setDaemon(true);
+		thread.start();
+	}
 
-			LocalDateTime now = LocalDateTime.now();
-			DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd_HH_mm_ss");
-			String formattedDateTime = now.format(formatter);
-			String videoNameWithoutExtension = videoName.substring(0, videoName.lastIndexOf('.'));
-			File video = new File(videoNameWithoutExtension);
-			if (!video.exists()) {
-				video.mkdir();
+	// Detects on the browsing frame, which is never masked in place; the masks are kept in video pixels like
+	// drawn ones. Frames are detected once per session, and regions already covered by a mask (e.g. of an
+	// earlier session) are skipped. Called from the auto-mask threads.
+	private int autoMaskFrame(AutoMasker masker, int index) {
+		if (!autoMaskedFrames.add(index)) {
+			return 0;
+		}
+		BufferedImage image = imageFrames.getFrame(index);
+		if (image == null) {
+			autoMaskedFrames.remove(index);
+			return 0;
+		}
+		Dimension original = originalSize(image);
+		double scaleX = original.width / (double) image.getWidth();
+		double scaleY = original.height / (double) image.getHeight();
+		List<Rectangle> regions;
+		try {
+			regions = masker.detect(image);
+		} catch (RuntimeException e) {
+			autoMaskedFrames.remove(index);
+			throw e;
+		}
+		int added = 0;
+		for (Rectangle region : regions) {
+			Rectangle rect = scaleRectangle(region, scaleX, scaleY);
+			if (isMasked(index, rect)) {
+				continue;
 			}
-			File imagesDir = new File(video, "images");
-			if (!imagesDir.exists()) {
-				imagesDir.mkdir();
+			added++;
+			AnnotationJournal.Mask mask = new AnnotationJournal.Mask(index, rect,
+					MaskingEngine.MaskMode.GAUSSIAN.name(), AutoMasker.blurRadius(rect), Color.BLACK.getRGB());
+			if (annotationJournal != null) {
+				annotationJournal.recordMask(index, rect, mask.mode, mask.strength, mask.fillRgb);
 			}
-			File outputFile = new File(imagesDir, formattedDateTime + "_frame_" + (currentIndex + 1) + ".jpg");
-			ImageIO.write(imageToSave, "jpg", outputFile);
-			File txtDir = new File(video, "yolo_txt");
-			if (!txtDir.exists()) {
-				txtDir.mkdir();
+			synchronized (frameMasks) {
+				frameMasks.computeIfAbsent(index, frame -> new ArrayList<>()).add(mask);
 			}
-			File textFile = new File(txtDir, formattedDateTime + "_frame_" + (currentIndex + 1) + ".txt");
-			try (java.io.FileWriter writer = new java.io.FileWriter(textFile)) {
-				writer.write(annotationDetails.toString());
+		}
+		if (added > 0) {
+			maskedFrames.add(index);
+		}
+		return added;
+	}
+
+	// Whether a mask of the frame already covers most of the region
+	private boolean isMasked(int index, Rectangle region) {
+		synchronized (frameMasks) {
+			for (AnnotationJournal.Mask mask : frameMasks.getOrDefault(index, List.of())) {
+				if (BoxPropagator.overlap(mask.region, region) >= AUTO_MASK_OVERLAP) {
+					return true;
+				}
 			}
+		}
+		return false;
+	}
 
-			JOptionPane.showMessageDialog(this, "Image saved: " + outputFile.getAbsolutePath() + "\nText file saved: "
-					+ textFile.getAbsolutePath());
-			logger.info("Image saved: " + outputFile.getAbsolutePath() + "\nText file saved: "
-					+ textFile.getAbsolutePath());
+	// Annotations of a crashed or earlier session come back; without a journal the session is in memory only
+	private void openJournal(String videoName, String sessionKey) {
+		String key = sessionKey.isEmpty() ? "" : "." + sessionKey.replaceAll("[^A-Za-z0-9._-]", "_");
+		File journalFile = new File(VideoFrameExtractor.videoDirectory(null, videoName), videoName + key + ".journal");
+		try {
+			annotationJournal = AnnotationJournal.open(journalFile, annotationStore);
+			for (AnnotationJournal.Mask mask : annotationJournal.getMasks()) {
+				frameMasks.computeIfAbsent(mask.frame, frame -> new ArrayList<>()).add(mask);
+				maskedFrames.add(mask.frame);
+			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.error("Could not open the annotation journal " + journalFile, e);
 		}
 	}
 
-	private void blurSelection(Rectangle rect) {
-		// Ensure the rectangle is within the bounds of the current image
-		int startX = Math.max(rect.x, 0);
-		int startY = Math.max(rect.y, 0);
-		int endX = Math.min(rect.x + rect.width, currentImage.getWidth());
-		int endY = Math.min(rect.y + rect.height, currentImage.getHeight());
-
-		// Apply blur directly on the original image
-		for (int x = startX; x < endX; x++) {
-			for (int y = startY; y < endY; y++) {
-				// Get the average color of the surrounding pixels
-				if (x <= 160) {
-					int blurredRGB = getAverageColor(currentImage, 0, y, 10); // Adjust kernel size as needed
-					currentImage.setRGB(0, y, blurredRGB);
-				} else {
-					int blurredRGB = getAverageColor(currentImage, x, y, 10); // Adjust kernel size as needed
-					currentImage.setRGB(x, y, blurredRGB);
+	// A decoded image with some of its frame's masks applied
+	private static final class MaskedFrame {
+		final int masks;
+		final BufferedImage image;
+
+		MaskedFrame(int masks, BufferedImage image) {
+			this.masks = masks;
+			this.image = image;
+		}
+	}
+
+	// The frame with its masks applied; also called from the export threads. Decoded images are shared with the
+	// prefetcher, the box propagator and the exports, which read them without locking, so they are never
+	// changed: masks go onto a copy, and a later mask onto a new copy.
+	private BufferedImage maskedFrame(int index) {
+		BufferedImage image = imageFrames.getFrame(index);
+		if (image == null) {
+			return null;
+		}
+		List<AnnotationJournal.Mask> masks = masksOf(index);
+		if (masks.isEmpty()) {
+			return image;
+		}
+		synchronized (maskedCopies) {
+			MaskedFrame masked = maskedCopies.get(image);
+			int applied = masked == null ? 0 : masked.masks;
+			if (applied < masks.size()) {
+				BufferedImage copy = SaveQueue.copyOf(masked == null ? image : masked.image);
+				for (AnnotationJournal.Mask mask : masks.subList(applied, masks.size())) {
+					applyMask(copy, mask);
+				}
+				if (masked != null) {
+					renderCache.invalidate(masked.image);
 				}
+				masked = new MaskedFrame(masks.size(), copy);
+				maskedCopies.put(image, masked);
 			}
+			return masked.image;
 		}
+	}
 
-		updateImage(); // Update the displayed image
+	// The frame to save or export. A proxy source decodes it from the video again, with the masks replayed.
+	private BufferedImage fullResolutionFrame(int index) {
+		if (imageFrames.getOriginalSize() == null) {
+			return maskedFrame(index);
+		}
+		BufferedImage image = imageFrames.getFullResolutionFrame(index);
+		if (image != null) {
+			for (AnnotationJournal.Mask mask : masksOf(index)) {
+				applyMask(image, mask);
+			}
+		}
+		return image;
 	}
 
-	// Increase the blur strength by increasing the kernel size
-	private int getAverageColor(BufferedImage img, int x, int y, int kernelSize) {
-		int r = 0, g = 0, b = 0;
-		int count = 0;
-
-		for (int i = -kernelSize; i <= kernelSize; i++) {
-			for (int j = -kernelSize; j <= kernelSize; j++) {
-				int nx = x + i;
-				int ny = y + j;
-				if (nx >= 0 && nx < img.getWidth() && ny >= 0 && ny < img.getHeight()) {
-					Color pixel = new Color(img.getRGB(nx, ny));
-					r += pixel.getRed();
-					g += pixel.getGreen();
-					b += pixel.getBlue();
-					count++;
-				}
+	// A full-resolution copy of the frame with the masks of a save request; called on the writer thread
+	private BufferedImage savedFrame(int index, List<AnnotationJournal.Mask> masks) {
+		BufferedImage image;
+		if (imageFrames.getOriginalSize() == null) {
+			BufferedImage decoded = imageFrames.getFrame(index);
+			image = decoded == null ? null : SaveQueue.copyOf(decoded);
+		} else {
+			image = imageFrames.getFullResolutionFrame(index);
+		}
+		if (image != null) {
+			for (AnnotationJournal.Mask mask : masks) {
+				applyMask(image, mask);
 			}
 		}
+		return image;
+	}
 
-		r /= count;
-		g /= count;
-		b /= count;
+	private List<AnnotationJournal.Mask> masksOf(int index) {
+		synchronized (frameMasks) {
+			return new ArrayList<>(frameMasks.getOrDefault(index, List.of()));
+		}
+	}
 
-		return new Color(r, g, b).getRGB();
+	// Masks are in video pixels; on a proxy frame the region and strength shrink with it
+	private void applyMask(BufferedImage image, AnnotationJournal.Mask mask) {
+		Dimension original = originalSize(image);
+		double scaleX = image.getWidth() / (double) original.width;
+		double scaleY = image.getHeight() / (double) original.height;
+		new MaskingEngine(MaskingEngine.MaskMode.valueOf(mask.mode),
+				Math.max(1, (int) Math.round(mask.strength * scaleX)), new Color(mask.fillRgb))
+				.apply(image, scaleRectangle(mask.region, scaleX, scaleY));
 	}
 
+	// Display to video pixels, the same for full resolution and proxy frames
 	private Rectangle scaleRectangleToOriginal(Rectangle rect) {
-		int scaledX = (int) (rect.x / scaleFactor);
-		int scaledY = (int) (rect.y / scaleFactor);
-		int scaledWidth = (int) (rect.width / scaleFactor);
-		int scaledHeight = (int) (rect.height / scaleFactor);
-		return new Rectangle(scaledX, scaledY, scaledWidth, scaledHeight);
+		return scaleRectangle(rect, 1 / scaleFactor, 1 / scaleFactor);
+	}
+
+	// Scales the corners and rounds them, so a box keeps its edges wherever the other corner lands
+	private static Rectangle scaleRectangle(Rectangle rect, double scaleX, double scaleY) {
+		int left = (int) Math.round(rect.x * scaleX);
+		int top = (int) Math.round(rect.y * scaleY);
+		int right = (int) Math.round((rect.x + rect.width) * scaleX);
+		int bottom = (int) Math.round((rect.y + rect.height) * scaleY);
+		return new Rectangle(left, top, right - left, bottom - top);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import com.metrics.FrameMetrics;
+
+/**
+ * Encodes frames to files. ImageIO writers are looked up once per thread and format and reused, instead of
+ * once per image as {@code ImageIO.write} does. RAW writes the BGR bytes of the raster as they are.
+ */
+class ImageEncoder {
+
+	enum Format {
+		JPEG("jpg"), PNG("png"), RAW("raw");
+
+		final String extension;
+
+		Format(String extension) {
+			this.extension = extension;
+		}
+	}
+
+	static final float DEFAULT_JPEG_QUALITY = 0.9f;
+
+	// ImageWriter instances are not thread safe; each encoding thread keeps its own
+	private static final ThreadLocal<Map<Format, ImageWriter>> WRITERS = ThreadLocal
+			.withInitial(() -> new EnumMap<>(Format.class));
+
+	private final Format format;
+	private final float quality;
+
+	ImageEncoder(Format format, float quality) {
+		if (quality <= 0 || quality > 1) {
+			throw new IllegalArgumentException("JPEG quality must be in (0, 1]: " + quality);
+		}
+		this.format = format;
+		this.quality = quality;
+	}
+
+	Format getFormat() {
+		return format;
+	}
+
+	void write(BufferedImage image, File file) throws IOException {
+		long start = System.nanoTime();
+		if (format == Format.RAW) {
+			writeRaw(image, file);
+		} else {
+			encode(image, file);
+		}
+		FrameMetrics.recordSince(FrameMetrics.ENCODE, start);
+	}
+
+	private void encode(BufferedImage image, File file) throws IOException {
+		ImageWriter writer = WRITERS.get().computeIfAbsent(format, ImageEncoder::createWriter);
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (format == Format.JPEG) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+		}
+		Files.deleteIfExists(file.toPath());
+		try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+			writer.setOutput(output);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.reset();
+		}
+	}
+
+	private static ImageWriter createWriter(Format format) {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(format.extension);
+		if (!writers.hasNext()) {
+			throw new IllegalStateException("No image writer for " + format);
+		}
+		return writers.next();
+	}
+
+	// Rows of BGR bytes, top to bottom, with no header
+	private static void writeRaw(BufferedImage image, File file) throws IOException {
+		BufferedImage bgr = image;
+		if (image.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+			bgr = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+			bgr.getGraphics().drawImage(image, 0, 0, null);
+		}
+		byte[] data = ((DataBufferByte) bgr.getRaster().getDataBuffer()).getData();
+		try (OutputStream output = Files.newOutputStream(file.toPath())) {
+			output.write(data);
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package com.image;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Masks a region of a frame in place. Blur modes are separable sliding-window box filters, so the cost per
+ * pixel does not depend on the kernel size; the Gaussian mode is three box passes. Pixels are read from and
+ * written to the raster in bulk, and large regions are processed in parallel row stripes.
+ */
+public class MaskingEngine {
+
+	public enum MaskMode {
+		BLUR("Blur"), GAUSSIAN("Gaussian"), PIXELATE("Pixelate"), SOLID("Solid fill");
+
+		private final String displayName;
+
+		MaskMode(String displayName) {
+			this.displayName = displayName;
+		}
+
+		@Override
+		public String toString() {
+			return displayName;
+		}
+	}
+
+	// Same 21x21 window as the original per-pixel blur
+	public static final int DEFAULT_STRENGTH = 10;
+
+	private static final int PARALLEL_THRESHOLD = 128 * 128;
+	private static final int MIN_STRIPE_ROWS = 32;
+
+	private final MaskMode mode;
+	private final int strength;
+	private final int fillRgb;
+
+	public MaskingEngine(MaskMode mode) {
+		this(mode, DEFAULT_STRENGTH, Color.BLACK);
+	}
+
+	// strength is the blur radius, or half the block size when pixelating
+	public MaskingEngine(MaskMode mode, int strength, Color fill) {
+		if (strength < 1) {
+			throw new IllegalArgumentException("Mask strength must be at least 1: " + strength);
+		}
+		this.mode = mode;
+		this.strength = strength;
+		this.fillRgb = fill.getRGB() & 0xFFFFFF;
+	}
+
+	public MaskMode getMode() {
+		return mode;
+	}
+
+	public int getStrength() {
+		return strength;
+	}
+
+	public Color getFill() {
+		return new Color(fillRgb);
+	}
+
+	public void apply(BufferedImage image, Rectangle region) {
+		Rectangle target = region.intersection(new Rectangle(image.getWidth(), image.getHeight()));
+		if (target.isEmpty()) {
+			return;
+		}
+		switch (mode) {
+		case BLUR:
+			blur(image, target, strength, 1);
+			break;
+		case GAUSSIAN:
+			// Three box passes approximate a Gaussian with the same variance as one box of this radius
+			blur(image, target, Math.max(1, (int) Math.round(strength / Math.sqrt(3))), 3);
+			break;
+		case PIXELATE:
+			pixelate(image, target, strength * 2);
+			break;
+		case SOLID:
+			int[] fill = new int[target.width * target.height];
+			Arrays.fill(fill, fillRgb);
+			writePixels(image, target, fill, 0, target.width);
+			break;
+		}
+	}
+
+	private static void blur(BufferedImage image, Rectangle target, int radius, int passes) {
+		// Read a margin around the region so that its border is blurred with the real neighbours
+		int margin = radius * passes;
+		Rectangle work = new Rectangle(target.x - margin, target.y - margin, target.width + 2 * margin,
+				target.height + 2 * margin).intersection(new Rectangle(image.getWidth(), image.getHeight()));
+		int width = work.width;
+		int height = work.height;
+		int[] pixels = readPixels(image, work);
+		int[] buffer = new int[pixels.length];
+		int stripes = stripes(width, height);
+		for (int pass = 0; pass < passes; pass++) {
+			int[] source = pixels;
+			int[] horizontal = buffer;
+			forEachStripe(height, stripes, (from, to) -> {
+				for (int y = from; y < to; y++) {
+					blurRow(source, horizontal, y * width, width, radius);
+				}
+			});
+			forEachStripe(height, stripes, (from, to) -> blurColumns(horizontal, source, width, height, from, to, radius));
+		}
+		writePixels(image, target, pixels, (target.y - work.y) * width + (target.x - work.x), width);
+	}
+
+	private static void blurRow(int[] source, int[] target, int offset, int length, int radius) {
+		int sumR = 0, sumG = 0, sumB = 0;
+		for (int i = 0; i <= Math.min(radius, length - 1); i++) {
+			int rgb = source[offset + i];
+			sumR += (rgb >> 16) & 0xFF;
+			sumG += (rgb >> 8) & 0xFF;
+			sumB += rgb & 0xFF;
+		}
+		for (int x = 0; x < length; x++) {
+			int low = x - radius;
+			int high = x + radius;
+			// Windows are clipped at the image border and averaged over the pixels they cover
+			int count = Math.min(high, length - 1) - Math.max(low, 0) + 1;
+			target[offset + x] = (sumR / count) << 16 | (sumG / count) << 8 | sumB / count;
+			if (high + 1 < length) {
+				int rgb = source[offset + high + 1];
+				sumR += (rgb >> 16) & 0xFF;
+				sumG += (rgb >> 8) & 0xFF;
+				sumB += rgb & 0xFF;
+			}
+			if (low >= 0) {
+				int rgb = source[offset + low];
+				sumR -= (rgb >> 16) & 0xFF;
+				sumG -= (rgb >> 8) & 0xFF;
+				sumB -= rgb & 0xFF;
+			}
+		}
+	}
+
+	// Sliding column sums over rows [from, to), so the vertical pass walks memory row by row
+	private static void blurColumns(int[] source, int[] target, int width, int height, int from, int to, int radius) {
+		int[] sumR = new int[width];
+		int[] sumG = new int[width];
+		int[] sumB = new int[width];
+		for (int y = Math.max(0, from - radius); y <= Math.min(height - 1, from + radius); y++) {
+			addRow(source, y * width, width, sumR, sumG, sumB, 1);
+		}
+		for (int y = from; y < to; y++) {
+			int count = Math.min(height - 1, y + radius) - Math.max(0, y - radius) + 1;
+			int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				target[offset + x] = (sumR[x] / count) << 16 | (sumG[x] / count) << 8 | sumB[x] / count;
+			}
+			if (y + radius + 1 < height) {
+				addRow(source, (y + radius + 1) * width, width, sumR, sumG, sumB, 1);
+			}
+			if (y - radius >= 0) {
+				addRow(source, (y - radius) * width, width, sumR, sumG, sumB, -1);
+			}
+		}
+	}
+
+	private static void addRow(int[] source, int offset, int width, int[] sumR, int[] sumG, int[] sumB, int sign) {
+		for (int x = 0; x < width; x++) {
+			int rgb = source[offset + x];
+			sumR[x] += sign * ((rgb >> 16) & 0xFF);
+			sumG[x] += sign * ((rgb >> 8) & 0xFF);
+			sumB[x] += sign * (rgb & 0xFF);
+		}
+	}
+
+	private static void pixelate(BufferedImage image, Rectangle target, int blockSize) {
+		int width = target.width;
+		int height = target.height;
+		int[] pixels = readPixels(image, target);
+		int blockRows = (height + blockSize - 1) / blockSize;
+		forEachStripe(blockRows, stripes(width, height), (from, to) -> {
+			for (int by = from; by < to; by++) {
+				int y0 = by * blockSize;
+				int y1 = Math.min(y0 + blockSize, height);
+				for (int x0 = 0; x0 < width; x0 += blockSize) {
+					int x1 = Math.min(x0 + blockSize, width);
+					long sumR = 0, sumG = 0, sumB = 0;
+					for (int y = y0; y < y1; y++) {
+						for (int x = x0; x < x1; x++) {
+							int rgb = pixels[y * width + x];
+							sumR += (rgb >> 16) & 0xFF;
+							sumG += (rgb >> 8) & 0xFF;
+							sumB += rgb & 0xFF;
+						}
+					}
+					int count = (y1 - y0) * (x1 - x0);
+					int average = (int) (sumR / count) << 16 | (int) (sumG / count) << 8 | (int) (sumB / count);
+					for (int y = y0; y < y1; y++) {
+						Arrays.fill(pixels, y * width + x0, y * width + x1, average);
+					}
+				}
+			}
+		});
+		writePixels(image, target, pixels, 0, width);
+	}
+
+	private interface StripeTask {
+		void run(int from, int to);
+	}
+
+	private static int stripes(int width, int height) {
+		if ((long) width * height < PARALLEL_THRESHOLD) {
+			return 1;
+		}
+		return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / MIN_STRIPE_ROWS));
+	}
+
+	private static void forEachStripe(int rows, int stripes, StripeTask task) {
+		if (stripes <= 1) {
+			task.run(0, rows);
+			return;
+		}
+		IntStream.range(0, stripes).parallel()
+				.forEach(stripe -> task.run(rows * stripe / stripes, rows * (stripe + 1) / stripes));
+	}
+
+	// Reads the region as packed 0xRRGGBB, straight from the raster for the byte and int image types
+	static int[] readPixels(BufferedImage image, Rectangle region) {
+		int[] pixels = new int[region.width * region.height];
+		WritableRaster raster = image.getRaster();
+		if (isInterleavedBytes(image)) {
+			ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+			byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+			int pixelStride = model.getPixelStride();
+			int scanline = model.getScanlineStride();
+			int[] offsets = model.getBandOffsets();
+			boolean grey = offsets.length < 3;
+			int i = 0;
+			for (int y = region.y; y < region.y + region.height; y++) {
+				int p = y * scanline + region.x * pixelStride;
+				for (int x = 0; x < region.width; x++, p += pixelStride) {
+					if (grey) {
+						int v = data[p + offsets[0]] & 0xFF;
+						pixels[i++] = v << 16 | v << 8 | v;
+					} else {
+						pixels[i++] = (data[p + offsets[0]] & 0xFF) << 16 | (data[p + offsets[1]] & 0xFF) << 8
+								| data[p + offsets[2]] & 0xFF;
+					}
+				}
+			}
+		} else if (isPackedInts(image)) {
+			int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+			int scanline = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+			for (int y = 0; y < region.height; y++) {
+				int row = (region.y + y) * scanline + region.x;
+				for (int x = 0; x < region.width; x++) {
+					pixels[y * region.width + x] = data[row + x] & 0xFFFFFF;
+				}
+			}
+		} else {
+			image.getRGB(region.x, region.y, region.width, region.height, pixels, 0, region.width);
+			for (int i = 0; i < pixels.length; i++) {
+				pixels[i] &= 0xFFFFFF;
+			}
+		}
+		return pixels;
+	}
+
+	// Writes packed 0xRRGGBB pixels into the region; alpha, where present, is left as it was
+	static void writePixels(BufferedImage image, Rectangle region, int[] pixels, int offset, int scansize) {
+		WritableRaster raster = image.getRaster();
+		if (isInterleavedBytes(image)) {
+			ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+			byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+			int pixelStride = model.getPixelStride();
+			int scanline = model.getScanlineStride();
+			int[] offsets = model.getBandOffsets();
+			boolean grey = offsets.length < 3;
+			for (int y = 0; y < region.height; y++) {
+				int p = (region.y + y) * scanline + region.x * pixelStride;
+				int i = offset + y * scansize;
+				for (int x = 0; x < region.width; x++, p += pixelStride) {
+					int rgb = pixels[i++];
+					if (grey) {
+						data[p + offsets[0]] = (byte) ((((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3);
+					} else {
+						data[p + offsets[0]] = (byte) (rgb >> 16);
+						data[p + offsets[1]] = (byte) (rgb >> 8);
+						data[p + offsets[2]] = (byte) rgb;
+					}
+				}
+			}
+		} else if (isPackedInts(image)) {
+			int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+			int scanline = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+			for (int y = 0; y < region.height; y++) {
+				int row = (region.y + y) * scanline + region.x;
+				int i = offset + y * scansize;
+				for (int x = 0; x < region.width; x++) {
+					data[row + x] = (data[row + x] & 0xFF000000) | pixels[i + x];
+				}
+			}
+		} else {
+			int[] rgb = new int[region.width * region.height];
+			image.getRGB(region.x, region.y, region.width, region.height, rgb, 0, region.width);
+			for (int y = 0; y < region.height; y++) {
+				for (int x = 0; x < region.width; x++) {
+					int j = y * region.width + x;
+					rgb[j] = (rgb[j] & 0xFF000000) | pixels[offset + y * scansize + x];
+				}
+			}
+			image.setRGB(region.x, region.y, region.width, region.height, rgb, 0, region.width);
+		}
+	}
+
+	private static boolean isInterleavedBytes(BufferedImage image) {
+		int type = image.getType();
+		return !isSubimage(image) && (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR
+				|| type == BufferedImage.TYPE_BYTE_GRAY);
+	}
+
+	private static boolean isPackedInts(BufferedImage image) {
+		int type = image.getType();
+		return !isSubimage(image) && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB);
+	}
+
+	private static boolean isSubimage(BufferedImage image) {
+		WritableRaster raster = image.getRaster();
+		return raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0;
+	}
+}
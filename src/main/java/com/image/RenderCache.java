@@ -0,0 +1,362 @@
+package com.image;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.metrics.FrameMetrics;
+
+/**
+ * Renders frames at the display zoom from a mip pyramid, tile by tile. Pyramid levels are successive
+ * halvings of a frame, built on first use; a zoom is drawn from the smallest level that is still at least
+ * as large, so the remaining bilinear step never reduces by more than half. Only the tiles inside the clip
+ * (the scroll pane viewport) are scaled and cached, so zooming an 8K frame costs as much as a 1080p one
+ * and memory follows the viewport instead of the frame. Levels and tiles share one byte budget and are
+ * evicted least recently used. Frames are only held weakly, so cached tiles never keep a frame alive that the
+ * frame source has let go of; their entries go once the frame is collected.
+ */
+class RenderCache {
+
+	static final long DEFAULT_BUDGET_BYTES = 256L * 1024 * 1024;
+	static final int TILE_SIZE = 256;
+
+	// Stands for a frame in the keys without keeping it alive
+	private static final class FrameToken extends WeakReference<BufferedImage> {
+		// Bumped by invalidate, so levels and tiles rendered from the old pixels are not put back
+		int generation;
+
+		FrameToken(BufferedImage frame, ReferenceQueue<BufferedImage> queue) {
+			super(frame, queue);
+		}
+	}
+
+	// A pyramid level (1 and up) of a frame, or one tile of the frame at a scale factor
+	private static final class Key {
+		final FrameToken frame;
+		final int level;
+		final double scaleFactor;
+		final int column;
+		final int row;
+
+		private Key(FrameToken frame, int level, double scaleFactor, int column, int row) {
+			this.frame = frame;
+			this.level = level;
+			this.scaleFactor = scaleFactor;
+			this.column = column;
+			this.row = row;
+		}
+
+		static Key level(FrameToken frame, int level) {
+			return new Key(frame, level, 0, 0, 0);
+		}
+
+		static Key tile(FrameToken frame, double scaleFactor, int column, int row) {
+			return new Key(frame, -1, scaleFactor, column, row);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return frame == other.frame && level == other.level && scaleFactor == other.scaleFactor
+					&& column == other.column && row == other.row;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(frame) * 31 + Objects.hash(level, scaleFactor, column, row);
+		}
+	}
+
+	private final long budgetBytes;
+	private final LinkedHashMap<Key, BufferedImage> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private final Map<BufferedImage, FrameToken> tokens = new WeakHashMap<>();
+	private final ReferenceQueue<BufferedImage> collected = new ReferenceQueue<>();
+	private final Set<Key> building = new HashSet<>();
+	private final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "pyramid-builder");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private long usedBytes;
+
+	RenderCache() {
+		this(DEFAULT_BUDGET_BYTES);
+	}
+
+	RenderCache(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+		FrameMetrics.framesInMemory("render", this, RenderCache::size);
+	}
+
+	// Frames with cached levels or tiles
+	synchronized int size() {
+		expunge();
+		Set<FrameToken> frames = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Key key : entries.keySet()) {
+			frames.add(key.frame);
+		}
+		return frames.size();
+	}
+
+	long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	void paint(Graphics g, BufferedImage image, double scaleFactor) {
+		paint(g, image, scaleFactor, null);
+	}
+
+	// Until the pyramid level for the zoom is built in the background, the clip is drawn from the nearest finer
+	// level and whenSharper runs once the level is there. Without whenSharper the level is built right away.
+	void paint(Graphics g, BufferedImage image, double scaleFactor, Runnable whenSharper) {
+		Rectangle bounds = scaledBounds(image, scaleFactor);
+		Rectangle clip = g.getClipBounds();
+		Rectangle visible = clip == null ? bounds : clip.intersection(bounds);
+		if (visible.isEmpty()) {
+			return;
+		}
+		int level = levelFor(image, scaleFactor);
+		int generation = generation(image);
+		BufferedImage source = whenSharper == null ? level(image, level) : cachedLevel(image, level);
+		if (source == null) {
+			buildInBackground(image, level, whenSharper);
+			BufferedImage finer = null;
+			for (int i = level - 1; finer == null; i--) {
+				finer = cachedLevel(image, i);
+			}
+			Graphics2D g2d = (Graphics2D) g.create();
+			g2d.clip(visible);
+			draw(g2d, finer, bounds, 0, 0);
+			g2d.dispose();
+			return;
+		}
+		for (int row = visible.y / TILE_SIZE; row <= (visible.y + visible.height - 1) / TILE_SIZE; row++) {
+			for (int column = visible.x / TILE_SIZE; column <= (visible.x + visible.width - 1) / TILE_SIZE; column++) {
+				g.drawImage(tile(image, source, generation, bounds, scaleFactor, column, row, true), column * TILE_SIZE,
+						row * TILE_SIZE, null);
+			}
+		}
+	}
+
+	// Builds the pyramid level and the tiles of the visible area ahead of time, unless they are already cached
+	void prepare(BufferedImage image, double scaleFactor, Rectangle visible) {
+		int generation = generation(image);
+		BufferedImage source = level(image, levelFor(image, scaleFactor));
+		Rectangle bounds = scaledBounds(image, scaleFactor);
+		Rectangle area = visible == null ? bounds : visible.intersection(bounds);
+		if (area.isEmpty()) {
+			return;
+		}
+		for (int row = area.y / TILE_SIZE; row <= (area.y + area.height - 1) / TILE_SIZE; row++) {
+			for (int column = area.x / TILE_SIZE; column <= (area.x + area.width - 1) / TILE_SIZE; column++) {
+				tile(image, source, generation, bounds, scaleFactor, column, row, false);
+			}
+		}
+	}
+
+	// Budget one prepared frame takes: the frame, which stays decoded while it is prepared, its pyramid levels
+	// down to the zoom and the tiles of the visible area
+	static long preparedBytes(BufferedImage image, double scaleFactor, Rectangle visible) {
+		long bytes = bytes(image);
+		int width = image.getWidth();
+		int height = image.getHeight();
+		for (int level = levelFor(image, scaleFactor); level > 0; level--) {
+			width /= 2;
+			height /= 2;
+			bytes += (long) width * height * 4;
+		}
+		Rectangle bounds = scaledBounds(image, scaleFactor);
+		Rectangle area = visible == null ? bounds : visible.intersection(bounds);
+		if (!area.isEmpty()) {
+			bytes += (long) (area.width + TILE_SIZE) * (area.height + TILE_SIZE) * 4;
+		}
+		return bytes;
+	}
+
+	// Size of the frame on screen, the same as the label's preferred size
+	static Rectangle scaledBounds(BufferedImage image, double scaleFactor) {
+		return new Rectangle(0, 0, Math.max(1, (int) (image.getWidth() * scaleFactor)),
+				Math.max(1, (int) (image.getHeight() * scaleFactor)));
+	}
+
+	// Bilinear filtering only looks at 2x2 pixels, so the frame is halved while the result stays at least as large
+	// as the zoom
+	static int levelFor(BufferedImage image, double scaleFactor) {
+		Rectangle bounds = scaledBounds(image, scaleFactor);
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int level = 0;
+		while (width / 2 >= bounds.width && height / 2 >= bounds.height) {
+			width /= 2;
+			height /= 2;
+			level++;
+		}
+		return level;
+	}
+
+	private BufferedImage level(BufferedImage image, int level) {
+		BufferedImage cached = cachedLevel(image, level);
+		if (cached == null) {
+			int generation = generation(image);
+			BufferedImage finer = level(image, level - 1);
+			cached = resize(finer, finer.getWidth() / 2, finer.getHeight() / 2);
+			put(Key.level(token(image), level), cached, generation);
+		}
+		return cached;
+	}
+
+	// Level 0 is the frame itself
+	private synchronized BufferedImage cachedLevel(BufferedImage image, int level) {
+		return level == 0 ? image : entries.get(Key.level(token(image), level));
+	}
+
+	private synchronized FrameToken token(BufferedImage image) {
+		return tokens.computeIfAbsent(image, frame -> new FrameToken(frame, collected));
+	}
+
+	private synchronized int generation(BufferedImage image) {
+		return token(image).generation;
+	}
+
+	private void buildInBackground(BufferedImage image, int level, Runnable whenBuilt) {
+		Key key = Key.level(token(image), level);
+		synchronized (this) {
+			if (!building.add(key)) {
+				return;
+			}
+		}
+		builder.execute(() -> {
+			try {
+				level(image, level);
+			} finally {
+				synchronized (this) {
+					building.remove(key);
+				}
+			}
+			whenBuilt.run();
+		});
+	}
+
+	// generation is the one of the frame from before source was taken
+	private BufferedImage tile(BufferedImage image, BufferedImage source, int generation, Rectangle bounds,
+			double scaleFactor, int column, int row, boolean painting) {
+		Key key = Key.tile(token(image), scaleFactor, column, row);
+		BufferedImage tile;
+		synchronized (this) {
+			tile = entries.get(key);
+		}
+		if (painting) {
+			if (tile != null) {
+				FrameMetrics.RENDER_CACHE.hit();
+			} else {
+				FrameMetrics.RENDER_CACHE.miss();
+			}
+		}
+		if (tile == null) {
+			int x = column * TILE_SIZE;
+			int y = row * TILE_SIZE;
+			tile = new BufferedImage(Math.min(TILE_SIZE, bounds.width - x), Math.min(TILE_SIZE, bounds.height - y),
+					BufferedImage.TYPE_INT_RGB);
+			Graphics2D g2d = tile.createGraphics();
+			draw(g2d, source, bounds, -x, -y);
+			g2d.dispose();
+			put(key, tile, generation);
+		}
+		return tile;
+	}
+
+	// Draws the level stretched over the frame bounds; the whole level is the source, so tiles meet without seams
+	private static void draw(Graphics2D g2d, BufferedImage level, Rectangle bounds, int x, int y) {
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		AffineTransform transform = AffineTransform.getTranslateInstance(x, y);
+		transform.scale(bounds.width / (double) level.getWidth(), bounds.height / (double) level.getHeight());
+		g2d.drawImage(level, transform, null);
+	}
+
+	// Drops the image when the frame was invalidated after the image was started from generation
+	private synchronized void put(Key key, BufferedImage image, int generation) {
+		expunge();
+		if (key.frame.generation != generation) {
+			return;
+		}
+		BufferedImage previous = entries.put(key, image);
+		if (previous != null) {
+			usedBytes -= bytes(previous);
+		}
+		usedBytes += bytes(image);
+		Iterator<BufferedImage> eldest = entries.values().iterator();
+		while (usedBytes > budgetBytes && entries.size() > 1) {
+			usedBytes -= bytes(eldest.next());
+			eldest.remove();
+		}
+	}
+
+	// Call after the pixels of the frame were changed in place
+	synchronized void invalidate(BufferedImage image) {
+		FrameToken token = tokens.get(image);
+		if (token != null) {
+			token.generation++;
+			remove(token);
+		}
+	}
+
+	// Removes the entries of frames that were collected
+	private void expunge() {
+		for (Reference<? extends BufferedImage> token; (token = collected.poll()) != null;) {
+			remove((FrameToken) token);
+		}
+	}
+
+	private void remove(FrameToken token) {
+		for (Iterator<Map.Entry<Key, BufferedImage>> it = entries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Key, BufferedImage> entry = it.next();
+			if (entry.getKey().frame == token) {
+				usedBytes -= bytes(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		usedBytes = 0;
+	}
+
+	static long bytes(BufferedImage image) {
+		return (long) image.getWidth() * image.getHeight() * 4;
+	}
+
+	private static BufferedImage resize(BufferedImage image, int width, int height) {
+		BufferedImage resized = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2d = resized.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g2d.drawImage(image, 0, 0, resized.getWidth(), resized.getHeight(), null);
+		g2d.dispose();
+		return resized;
+	}
+}
@@ -0,0 +1,175 @@
+package com.image;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.annotation.AnnotationJournal;
+import com.metrics.FrameMetrics;
+
+/**
+ * Writes saved frames on a single background thread. Each request carries a snapshot of the frame's
+ * annotations and masks; the writer fetches the frame itself, which may mean decoding it at full resolution,
+ * so the annotator can move on while earlier saves are still decoding and encoding. When the bounded queue
+ * is full, submitting blocks until the writer catches up.
+ */
+class SaveQueue {
+	private static final Logger logger = LoggerFactory.getLogger(SaveQueue.class);
+
+	static final int DEFAULT_CAPACITY = 4;
+	private static final Font LABEL_FONT = new Font("Arial", Font.BOLD, 50);
+	// Quality ImageIO.write used to apply by default
+	private static final ImageEncoder JPEG_ENCODER = new ImageEncoder(ImageEncoder.Format.JPEG, 0.75f);
+
+	static class SaveRequest {
+		final String videoName;
+		final int frameIndex;
+		final int frameNumber;
+		final String timestamp;
+		final List<AnnotationJournal.Mask> masks;
+		final List<Rectangle> boxes;
+		final List<String> labels;
+		final List<Color> colors;
+		final String annotationDetails;
+
+		// masks must be a copy, taken when the save was asked for
+		SaveRequest(String videoName, int frameIndex, String timestamp, List<AnnotationJournal.Mask> masks,
+				List<Rectangle> boxes, List<String> labels, List<Color> colors, String annotationDetails) {
+			this.videoName = videoName;
+			this.frameIndex = frameIndex;
+			this.frameNumber = frameIndex + 1;
+			this.timestamp = timestamp;
+			this.masks = masks;
+			this.boxes = boxes;
+			this.labels = labels;
+			this.colors = colors;
+			this.annotationDetails = annotationDetails;
+		}
+	}
+
+	interface FrameLoader {
+		// A private copy of the frame with the masks applied, or null when it cannot be decoded. Called on the
+		// writer thread.
+		BufferedImage load(int frameIndex, List<AnnotationJournal.Mask> masks);
+	}
+
+	interface Listener {
+		// Called on the writer thread
+		void saved(SaveRequest request, File imageFile, File textFile);
+
+		void failed(SaveRequest request, IOException e);
+	}
+
+	private final ThreadPoolExecutor writer;
+	private final FrameLoader frames;
+	private final Listener listener;
+
+	SaveQueue(int capacity, FrameLoader frames, Listener listener) {
+		this.frames = frames;
+		this.listener = listener;
+		this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+				runnable -> {
+					Thread thread = new Thread(runnable, "frame-writer");
+					thread.setDaemon(true);
+					return thread;
+				}, (runnable, executor) -> {
+					// Backpressure: wait for a free slot instead of dropping the save
+					try {
+						executor.getQueue().put(runnable);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted while waiting for the writer", e);
+					}
+				});
+	}
+
+	void submit(SaveRequest request) {
+		writer.execute(() -> write(request));
+	}
+
+	int pending() {
+		return writer.getQueue().size() + writer.getActiveCount();
+	}
+
+	private void write(SaveRequest request) {
+		long start = System.nanoTime();
+		try {
+			BufferedImage frame = frames.load(request.frameIndex, request.masks);
+			if (frame == null) {
+				throw new IOException("Frame " + request.frameNumber + " could not be decoded");
+			}
+			Graphics2D g2d = frame.createGraphics();
+			drawBoxes(g2d, request.boxes, request.labels, request.colors);
+			g2d.dispose();
+
+			String videoNameWithoutExtension = request.videoName.substring(0, request.videoName.lastIndexOf('.'));
+			File video = new File(videoNameWithoutExtension);
+			File imagesDir = new File(video, "images");
+			imagesDir.mkdirs();
+			File outputFile = new File(imagesDir, request.timestamp + "_frame_" + request.frameNumber + ".jpg");
+			writeJpeg(frame, outputFile);
+			File txtDir = new File(video, "yolo_txt");
+			txtDir.mkdirs();
+			File textFile = new File(txtDir, request.timestamp + "_frame_" + request.frameNumber + ".txt");
+			try (FileWriter fileWriter = new FileWriter(textFile)) {
+				fileWriter.write(request.annotationDetails);
+			}
+			logger.info("Image saved: " + outputFile.getAbsolutePath() + "\nText file saved: " + textFile.getAbsolutePath());
+			FrameMetrics.recordSince(FrameMetrics.SAVE, start);
+			listener.saved(request, outputFile, textFile);
+		} catch (IOException e) {
+			logger.error("Could not save frame " + request.frameNumber, e);
+			listener.failed(request, e);
+		} catch (RuntimeException e) {
+			// e.g. the video could not be decoded again
+			logger.error("Could not save frame " + request.frameNumber, e);
+			listener.failed(request, new IOException(e.getMessage(), e));
+		}
+	}
+
+	// Boxes and labels as they appear on saved and exported frames
+	static void drawBoxes(Graphics2D g2d, List<Rectangle> boxes, List<String> labels, List<Color> colors) {
+		g2d.setStroke(new BasicStroke(4));
+		g2d.setFont(LABEL_FONT);
+		for (int i = 0; i < boxes.size(); i++) {
+			Rectangle box = boxes.get(i);
+			g2d.setColor(colors.get(i));
+			g2d.drawRect(box.x, box.y, box.width, box.height);
+			g2d.drawString(labels.get(i), box.x, box.y - 5);
+		}
+	}
+
+	static void writeJpeg(BufferedImage image, File outputFile) throws IOException {
+		JPEG_ENCODER.write(image, outputFile);
+	}
+
+	static BufferedImage copyOf(BufferedImage image) {
+		return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+	}
+
+	// Lets queued saves finish, e.g. before the application exits
+	void shutdown(long timeout, TimeUnit unit) {
+		writer.shutdown();
+		try {
+			if (!writer.awaitTermination(timeout, unit)) {
+				logger.error("Gave up waiting for " + pending() + " pending saves.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
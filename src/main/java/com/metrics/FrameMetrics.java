@@ -0,0 +1,83 @@
+package com.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of the frame pipeline, from decoding to painting and saving. They live on Micrometer's global
+ * registry, so code outside the Spring context (the Swing UI, the extractor) can record without wiring;
+ * {@code MetricsConfiguration} adds the JMX and log registries that publish them.
+ */
+public final class FrameMetrics {
+
+	private static final MeterRegistry registry = Metrics.globalRegistry;
+
+	public static final Timer DECODE = timer("frameannotator.decode", "Decoding one kept frame");
+	public static final Timer CONVERSION = timer("frameannotator.conversion", "Converting a Mat to a BufferedImage");
+	public static final Timer MASKING = timer("frameannotator.masking", "Masking a selection");
+	public static final Timer DETECTION = timer("frameannotator.detection", "Finding the regions to mask in a frame");
+	public static final Timer PAINT = timer("frameannotator.paint", "Painting the frame and its annotations");
+	public static final Timer ENCODE = timer("frameannotator.encode", "Encoding and writing one image file");
+	public static final Timer SAVE = timer("frameannotator.save", "Saving a frame with its annotation file");
+	public static final Timer NAVIGATION = timer("frameannotator.navigation",
+			"From a navigation request until the new frame is painted");
+
+	/**
+	 * Hits and misses of one cache, published as counters and a gauge of the hit ratio so far.
+	 */
+	public static final class CacheMeter {
+		private final Counter hits;
+		private final Counter misses;
+
+		private CacheMeter(String cache) {
+			hits = Counter.builder("frameannotator.cache.requests").tag("cache", cache).tag("result", "hit")
+					.register(registry);
+			misses = Counter.builder("frameannotator.cache.requests").tag("cache", cache).tag("result", "miss")
+					.register(registry);
+			Gauge.builder("frameannotator.cache.hit.ratio", this, CacheMeter::hitRatio).tag("cache", cache)
+					.description("Share of requests served from the cache").strongReference(true).register(registry);
+		}
+
+		public void hit() {
+			hits.increment();
+		}
+
+		public void miss() {
+			misses.increment();
+		}
+
+		private double hitRatio() {
+			double requests = hits.count() + misses.count();
+			return requests > 0 ? hits.count() / requests : Double.NaN;
+		}
+	}
+
+	public static final CacheMeter FRAME_CACHE = new CacheMeter("frames");
+	public static final CacheMeter RENDER_CACHE = new CacheMeter("render");
+
+	private FrameMetrics() {
+	}
+
+	public static void recordSince(Timer timer, long startNanos) {
+		timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	// Frames kept in memory by holder; a later holder of the same kind (e.g. for the next video) replaces the
+	// earlier one, which is only weakly referenced
+	public static <T> void framesInMemory(String holder, T object, ToDoubleFunction<T> frames) {
+		registry.find("frameannotator.frames.in.memory").tag("holder", holder).meters().forEach(registry::remove);
+		Gauge.builder("frameannotator.frames.in.memory", object, frames).tag("holder", holder)
+				.description("Frames held in memory").register(registry);
+	}
+
+	private static Timer timer(String name, String description) {
+		return Timer.builder(name).description(description).publishPercentiles(0.5, 0.95, 0.99)
+				.publishPercentileHistogram().register(registry);
+	}
+}
@@ -0,0 +1,159 @@
+package com.video;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.opencv.opencv_java;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.metrics.FrameMetrics;
+
+/**
+ * Finds faces and licence plates with OpenCV cascade classifiers on the CPU and blurs them in place with a native
+ * Gaussian blur on a submat of each region. A detector is a cascade file on disk or the name of one of the Haar
+ * or LBP cascades bundled with OpenCV (e.g. {@code haarcascade_frontalface_default.xml}). Detection runs on a
+ * grey copy at most {@link #DETECT_EDGE} pixels wide. Classifiers are not thread safe, so every thread loads its
+ * own; one masker can be shared by a whole thread pool.
+ */
+public final class AutoMasker {
+	private static final Logger logger = LoggerFactory.getLogger(AutoMasker.class);
+
+	public static final List<String> DEFAULT_DETECTORS = List.of("haarcascade_frontalface_default.xml",
+			"haarcascade_russian_plate_number.xml");
+
+	static final int DETECT_EDGE = 1280;
+	private static final double SCALE_STEP = 1.1;
+	private static final int MIN_NEIGHBOURS = 4;
+	private static final int MIN_SIZE = 20;
+	// Detections are tight around the face or plate; the mask covers a little more
+	private static final double PADDING = 0.15;
+	private static final int MIN_RADIUS = 10;
+
+	private final List<String> detectorFiles = new ArrayList<>();
+	private final ThreadLocal<List<CascadeClassifier>> classifiers = ThreadLocal.withInitial(this::loadClassifiers);
+
+	public AutoMasker(List<String> detectors) throws IOException {
+		NativeLoader.ensureLoaded();
+		for (String detector : detectors) {
+			File file = resolve(detector.trim());
+			if (new CascadeClassifier(file.getAbsolutePath()).empty()) {
+				throw new IOException("Not a cascade classifier: " + file);
+			}
+			detectorFiles.add(file.getAbsolutePath());
+		}
+		if (detectorFiles.isEmpty()) {
+			throw new IOException("No detectors configured for auto-masking");
+		}
+		logger.info("Auto-masking with " + detectorFiles);
+	}
+
+	// Regions of the frame to mask, in frame pixels
+	public List<Rectangle> detect(Mat frame) {
+		long start = System.nanoTime();
+		Mat grey = new Mat();
+		if (frame.channels() == 3) {
+			Imgproc.cvtColor(frame, grey, Imgproc.COLOR_BGR2GRAY);
+		} else {
+			frame.copyTo(grey);
+		}
+		double scale = Math.min(1.0, DETECT_EDGE / (double) Math.max(frame.cols(), frame.rows()));
+		if (scale < 1.0) {
+			Mat small = new Mat();
+			Imgproc.resize(grey, small, new Size(Math.round(frame.cols() * scale), Math.round(frame.rows() * scale)), 0,
+					0, Imgproc.INTER_AREA);
+			grey.release();
+			grey = small;
+		}
+		Imgproc.equalizeHist(grey, grey);
+		List<Rectangle> regions = new ArrayList<>();
+		MatOfRect found = new MatOfRect();
+		try {
+			for (CascadeClassifier classifier : classifiers.get()) {
+				classifier.detectMultiScale(grey, found, SCALE_STEP, MIN_NEIGHBOURS, 0, new Size(MIN_SIZE, MIN_SIZE),
+						new Size());
+				for (Rect detection : found.toArray()) {
+					regions.add(region(detection, scale, frame.cols(), frame.rows()));
+				}
+			}
+		} finally {
+			found.release();
+			grey.release();
+		}
+		FrameMetrics.recordSince(FrameMetrics.DETECTION, start);
+		return regions;
+	}
+
+	public List<Rectangle> detect(BufferedImage frame) {
+		Mat mat = MatConverter.toMat(frame);
+		try {
+			return detect(mat);
+		} finally {
+			mat.release();
+		}
+	}
+
+	// Detects and blurs in place; returns the regions masked
+	public List<Rectangle> mask(Mat frame) {
+		List<Rectangle> regions = detect(frame);
+		long start = System.nanoTime();
+		for (Rectangle region : regions) {
+			Mat roi = frame.submat(new Rect(region.x, region.y, region.width, region.height));
+			int size = 2 * blurRadius(region) + 1;
+			Imgproc.GaussianBlur(roi, roi, new Size(size, size), 0);
+			roi.release();
+		}
+		FrameMetrics.recordSince(FrameMetrics.MASKING, start);
+		return regions;
+	}
+
+	// Large enough that a face or plate cannot be made out, whatever its size in the frame
+	public static int blurRadius(Rectangle region) {
+		return Math.max(MIN_RADIUS, Math.min(region.width, region.height) / 4);
+	}
+
+	// A detection on the scaled grey copy, padded and mapped back onto the frame
+	static Rectangle region(Rect detection, double scale, int width, int height) {
+		double padX = detection.width * PADDING;
+		double padY = detection.height * PADDING;
+		int left = (int) Math.max(0, Math.floor((detection.x - padX) / scale));
+		int top = (int) Math.max(0, Math.floor((detection.y - padY) / scale));
+		int right = (int) Math.min(width, Math.ceil((detection.x + detection.width + padX) / scale));
+		int bottom = (int) Math.min(height, Math.ceil((detection.y + detection.height + padY) / scale));
+		return new Rectangle(left, top, right - left, bottom - top);
+	}
+
+	private List<CascadeClassifier> loadClassifiers() {
+		List<CascadeClassifier> loaded = new ArrayList<>();
+		for (String file : detectorFiles) {
+			loaded.add(new CascadeClassifier(file));
+		}
+		return loaded;
+	}
+
+	// A file on disk, or one of the cascades in the share/opencv4 folder of the bytedeco jar for this platform
+	private static File resolve(String detector) throws IOException {
+		File file = new File(detector);
+		if (file.isFile()) {
+			return file;
+		}
+		String folder = detector.startsWith("lbpcascade") ? "lbpcascades" : "haarcascades";
+		File bundled = Loader.cacheResource(opencv_java.class,
+				Loader.getPlatform() + "/share/opencv4/" + folder + "/" + detector);
+		if (bundled == null || !bundled.isFile()) {
+			throw new IOException("No such detector file or bundled OpenCV cascade: " + detector);
+		}
+		return bundled;
+	}
+}
@@ -0,0 +1,253 @@
+package com.video;
+
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+/**
+ * Follows boxes from frame to frame with sparse Lucas-Kanade optical flow on the CPU. Corners inside each box
+ * are tracked to the next frame and back again; points that do not come back to where they started are
+ * dropped. A box moves by the median displacement of the remaining points and scales by the median change of
+ * their spread. The share of points that survive each step multiplies into the confidence of the box.
+ * Frames are tracked in grey at most {@link #TRACK_EDGE} pixels wide. Not thread safe.
+ */
+public final class BoxTracker {
+
+	static final int TRACK_EDGE = 960;
+	private static final int MAX_CORNERS = 40;
+	private static final int MIN_POINTS = 4;
+	private static final int GRID = 5;
+	// Forward-backward error in tracking pixels above which a point is dropped
+	private static final double MAX_ROUND_TRIP_ERROR = 1.0;
+	private static final Size WINDOW = new Size(21, 21);
+	private static final int PYRAMID_LEVELS = 3;
+
+	public static final class Track {
+		// Null once the box is lost
+		public final Rectangle box;
+		public final double confidence;
+
+		Track(Rectangle box, double confidence) {
+			this.box = box;
+			this.confidence = confidence;
+		}
+	}
+
+	private Mat previous;
+	// Tracking pixels per box unit
+	private double scale;
+	// In tracking pixels, null when lost
+	private Rectangle2D.Double[] boxes;
+	private double[] confidences;
+
+	public BoxTracker() {
+		NativeLoader.ensureLoaded();
+	}
+
+	// boxScale is frame pixels per box unit, below 1 when the boxes are in video pixels and the frames are proxies
+	public void start(BufferedImage frame, double boxScale, Rectangle[] startBoxes) {
+		release();
+		scale = boxScale * Math.min(1.0, TRACK_EDGE / (double) Math.max(frame.getWidth(), frame.getHeight()));
+		previous = grey(frame);
+		boxes = new Rectangle2D.Double[startBoxes.length];
+		confidences = new double[startBoxes.length];
+		for (int i = 0; i < startBoxes.length; i++) {
+			Rectangle box = startBoxes[i];
+			boxes[i] = new Rectangle2D.Double(box.x * scale, box.y * scale, box.width * scale, box.height * scale);
+			confidences[i] = 1.0;
+		}
+	}
+
+	// Moves the boxes on to the next frame, which must have the size of the first one
+	public Track[] next(BufferedImage frame) {
+		Mat current = grey(frame);
+		Track[] tracks = new Track[boxes.length];
+		for (int i = 0; i < boxes.length; i++) {
+			if (boxes[i] != null) {
+				boxes[i] = follow(previous, current, boxes[i], i);
+			}
+			tracks[i] = boxes[i] == null ? new Track(null, 0)
+					: new Track(toBoxUnits(boxes[i]), confidences[i]);
+		}
+		previous.release();
+		previous = current;
+		return tracks;
+	}
+
+	public boolean isLost() {
+		return Arrays.stream(boxes).allMatch(box -> box == null);
+	}
+
+	public void release() {
+		if (previous != null) {
+			previous.release();
+			previous = null;
+		}
+	}
+
+	private Mat grey(BufferedImage frame) {
+		Mat mat = MatConverter.toMat(frame);
+		Mat grey = new Mat();
+		if (mat.channels() == 3) {
+			Imgproc.cvtColor(mat, grey, Imgproc.COLOR_BGR2GRAY);
+		} else {
+			mat.copyTo(grey);
+		}
+		mat.release();
+		double frameScale = TRACK_EDGE / (double) Math.max(frame.getWidth(), frame.getHeight());
+		if (frameScale < 1.0) {
+			Mat small = new Mat();
+			Imgproc.resize(grey, small, new Size(Math.round(frame.getWidth() * frameScale),
+					Math.round(frame.getHeight() * frameScale)), 0, 0, Imgproc.INTER_AREA);
+			grey.release();
+			grey = small;
+		}
+		return grey;
+	}
+
+	private Rectangle2D.Double follow(Mat from, Mat to, Rectangle2D.Double box, int index) {
+		Rect roi = clip(box, from.cols(), from.rows());
+		if (roi == null) {
+			return null;
+		}
+		Point[] start = corners(from, roi);
+		MatOfPoint2f startPoints = new MatOfPoint2f(start);
+		MatOfPoint2f forward = new MatOfPoint2f();
+		MatOfPoint2f back = new MatOfPoint2f();
+		MatOfByte forwardStatus = new MatOfByte();
+		MatOfByte backStatus = new MatOfByte();
+		MatOfFloat error = new MatOfFloat();
+		Point[] moved;
+		Point[] returned;
+		byte[] forwardFound;
+		byte[] backFound;
+		try {
+			Video.calcOpticalFlowPyrLK(from, to, startPoints, forward, forwardStatus, error, WINDOW, PYRAMID_LEVELS);
+			Video.calcOpticalFlowPyrLK(to, from, forward, back, backStatus, error, WINDOW, PYRAMID_LEVELS);
+			moved = forward.toArray();
+			returned = back.toArray();
+			forwardFound = forwardStatus.toArray();
+			backFound = backStatus.toArray();
+		} finally {
+			startPoints.release();
+			forward.release();
+			back.release();
+			forwardStatus.release();
+			backStatus.release();
+			error.release();
+		}
+		Point[] before = new Point[start.length];
+		Point[] after = new Point[start.length];
+		int kept = 0;
+		for (int i = 0; i < start.length; i++) {
+			if (forwardFound[i] == 1 && backFound[i] == 1 && Math.hypot(returned[i].x - start[i].x,
+					returned[i].y - start[i].y) <= MAX_ROUND_TRIP_ERROR) {
+				before[kept] = start[i];
+				after[kept++] = moved[i];
+			}
+		}
+		if (kept < MIN_POINTS) {
+			return null;
+		}
+		confidences[index] *= kept / (double) start.length;
+		Rectangle2D.Double next = moveBox(box, Arrays.copyOf(before, kept), Arrays.copyOf(after, kept));
+		return clip(next, to.cols(), to.rows()) == null ? null : next;
+	}
+
+	// Good features inside the box; a plain grid when the box has too little texture
+	private static Point[] corners(Mat frame, Rect roi) {
+		Mat region = frame.submat(roi);
+		MatOfPoint corners = new MatOfPoint();
+		Mat noMask = new Mat();
+		Point[] found;
+		try {
+			Imgproc.goodFeaturesToTrack(region, corners, MAX_CORNERS, 0.01, 3, noMask);
+			found = corners.toArray();
+		} finally {
+			corners.release();
+			noMask.release();
+			region.release();
+		}
+		if (found.length >= MIN_POINTS) {
+			for (Point point : found) {
+				point.x += roi.x;
+				point.y += roi.y;
+			}
+			return found;
+		}
+		Point[] grid = new Point[GRID * GRID];
+		for (int y = 0; y < GRID; y++) {
+			for (int x = 0; x < GRID; x++) {
+				grid[y * GRID + x] = new Point(roi.x + roi.width * (x + 0.5) / GRID, roi.y + roi.height * (y + 0.5) / GRID);
+			}
+		}
+		return grid;
+	}
+
+	// The part of the box inside the frame, or null when too little of it is left to track
+	private static Rect clip(Rectangle2D box, int width, int height) {
+		int left = (int) Math.max(0, Math.floor(box.getMinX()));
+		int top = (int) Math.max(0, Math.floor(box.getMinY()));
+		int right = (int) Math.min(width, Math.ceil(box.getMaxX()));
+		int bottom = (int) Math.min(height, Math.ceil(box.getMaxY()));
+		return right - left < 4 || bottom - top < 4 ? null : new Rect(left, top, right - left, bottom - top);
+	}
+
+	private Rectangle toBoxUnits(Rectangle2D box) {
+		int left = (int) Math.round(box.getMinX() / scale);
+		int top = (int) Math.round(box.getMinY() / scale);
+		return new Rectangle(left, top, (int) Math.round(box.getMaxX() / scale) - left,
+				(int) Math.round(box.getMaxY() / scale) - top);
+	}
+
+	// Shifts the box by the median point displacement and scales it by the median ratio of the points'
+	// distances to their centroid, which ignores a few points that slid off onto the background
+	static Rectangle2D.Double moveBox(Rectangle2D box, Point[] before, Point[] after) {
+		int n = before.length;
+		double[] dx = new double[n];
+		double[] dy = new double[n];
+		double beforeX = 0;
+		double beforeY = 0;
+		double afterX = 0;
+		double afterY = 0;
+		for (int i = 0; i < n; i++) {
+			dx[i] = after[i].x - before[i].x;
+			dy[i] = after[i].y - before[i].y;
+			beforeX += before[i].x / n;
+			beforeY += before[i].y / n;
+			afterX += after[i].x / n;
+			afterY += after[i].y / n;
+		}
+		double[] ratios = new double[n];
+		int spread = 0;
+		for (int i = 0; i < n; i++) {
+			double distance = Math.hypot(before[i].x - beforeX, before[i].y - beforeY);
+			if (distance > 1e-3) {
+				ratios[spread++] = Math.hypot(after[i].x - afterX, after[i].y - afterY) / distance;
+			}
+		}
+		double scale = spread > 0 ? median(Arrays.copyOf(ratios, spread)) : 1.0;
+		double width = box.getWidth() * scale;
+		double height = box.getHeight() * scale;
+		return new Rectangle2D.Double(box.getCenterX() + median(dx) - width / 2,
+				box.getCenterY() + median(dy) - height / 2, width, height);
+	}
+
+	private static double median(double[] values) {
+		Arrays.sort(values);
+		int middle = values.length / 2;
+		return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+	}
+}
@@ -0,0 +1,44 @@
+package com.video;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import com.metrics.FrameMetrics;
+
+/**
+ * Reads frames of a {@link VideoCapture} by source frame position. Short gaps are skipped with
+ * {@code grab()}, which is cheaper than seeking back to the previous keyframe; longer gaps and backward
+ * jumps seek.
+ */
+class CaptureCursor {
+
+	private static final int MAX_GRAB_AHEAD = 64;
+
+	private final VideoCapture capture;
+	private long nextPosition;
+
+	CaptureCursor(VideoCapture capture) {
+		this.capture = capture;
+	}
+
+	boolean read(long position, Mat frame) {
+		long start = System.nanoTime();
+		if (position < nextPosition || position - nextPosition > MAX_GRAB_AHEAD) {
+			capture.set(Videoio.CAP_PROP_POS_FRAMES, position);
+			nextPosition = position;
+		}
+		while (nextPosition < position) {
+			if (!capture.grab()) {
+				return false;
+			}
+			nextPosition++;
+		}
+		if (!capture.read(frame)) {
+			return false;
+		}
+		nextPosition = position + 1;
+		FrameMetrics.recordSince(FrameMetrics.DECODE, start);
+		return true;
+	}
+}
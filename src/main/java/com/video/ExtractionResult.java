@@ -0,0 +1,50 @@
+package com.video;
+
+/**
+ * Outcome of extracting one video, used for throughput reporting.
+ */
+public class ExtractionResult {
+
+	private final String videoPath;
+	private final int frames;
+	private final long elapsedNanos;
+	// Regions blurred by auto-masking
+	private final int masked;
+
+	public ExtractionResult(String videoPath, int frames, long elapsedNanos) {
+		this(videoPath, frames, elapsedNanos, 0);
+	}
+
+	public ExtractionResult(String videoPath, int frames, long elapsedNanos, int masked) {
+		this.videoPath = videoPath;
+		this.frames = frames;
+		this.elapsedNanos = elapsedNanos;
+		this.masked = masked;
+	}
+
+	public String getVideoPath() {
+		return videoPath;
+	}
+
+	public int getFrames() {
+		return frames;
+	}
+
+	public int getMasked() {
+		return masked;
+	}
+
+	public double getSeconds() {
+		return elapsedNanos / 1e9;
+	}
+
+	public double getFramesPerSecond() {
+		return elapsedNanos > 0 ? frames / getSeconds() : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d frames in %.2f s (%.1f frames/s)%s", videoPath, frames, getSeconds(),
+				getFramesPerSecond(), masked > 0 ? ", " + masked + " regions masked" : "");
+	}
+}
@@ -0,0 +1,322 @@
+package com.video;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decoded sampled frames of one video on disk, so a video opened before is not decoded again. The file holds a
+ * fixed-size header, the frames as raw BGR (or grey) bytes with a fixed stride, in sampled order, and the source
+ * frame positions. Frames are read through memory mappings, which live outside the Java heap; only the image a
+ * frame is copied into is on the heap. The cache is valid for the same video size, modification time and sampler.
+ */
+public class FrameCacheFile implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(FrameCacheFile.class);
+
+	private static final int MAGIC = 0x46524D43; // "FRMC"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 128;
+	private static final int MAX_SAMPLER_BYTES = 64;
+	// One mapping cannot exceed 2 GB, so long caches are mapped in chunks of whole frames
+	private static final long MAX_MAPPING_BYTES = Integer.MAX_VALUE;
+
+	private final FileChannel channel;
+	private final int width;
+	private final int height;
+	private final int channels;
+	private final int frameCount;
+	private final long stride;
+	private final long[] framePositions;
+	private final int framesPerMapping;
+	private final MappedByteBuffer[] mappings;
+
+	private FrameCacheFile(FileChannel channel, Header header, long[] framePositions, long maxMappingBytes) {
+		this.channel = channel;
+		this.width = header.width;
+		this.height = header.height;
+		this.channels = header.channels;
+		this.frameCount = header.frameCount;
+		this.stride = header.stride();
+		this.framePositions = framePositions;
+		this.framesPerMapping = (int) Math.max(1, maxMappingBytes / Math.max(1, stride));
+		this.mappings = new MappedByteBuffer[(frameCount + framesPerMapping - 1) / framesPerMapping];
+	}
+
+	// <outputRoot>/<videoName>/<videoFile>.frames, next to the metadata file
+	public static File location(String videoPath) {
+		return new File(VideoFrameExtractor.videoDirectory(null, videoPath), new File(videoPath).getName() + ".frames");
+	}
+
+	// Returns null when there is no cache or it belongs to another version of the video or another sampler
+	public static FrameCacheFile open(File file, File video, String sampler) {
+		return open(file, video, sampler, MAX_MAPPING_BYTES);
+	}
+
+	// Tests map small caches in several chunks, like long ones
+	static FrameCacheFile open(File file, File video, String sampler, long maxMappingBytes) {
+		if (!file.isFile()) {
+			return null;
+		}
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			Header header = Header.read(channel);
+			if (header == null || !header.matches(video, sampler)
+					|| channel.size() != header.positionsOffset() + header.frameCount * 8L) {
+				logger.info("Frame cache " + file.getName() + " is out of date.");
+				channel.close();
+				return null;
+			}
+			ByteBuffer table = ByteBuffer.allocate(header.frameCount * 8);
+			readFully(channel, table, header.positionsOffset());
+			table.flip();
+			long[] positions = new long[header.frameCount];
+			table.asLongBuffer().get(positions);
+			logger.info("Opened frame cache " + file.getName() + " with " + positions.length + " frames.");
+			return new FrameCacheFile(channel, header, positions, maxMappingBytes);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Could not read frame cache " + file.getName() + ": " + e.getMessage());
+			closeQuietly(channel);
+			return null;
+		}
+	}
+
+	public int size() {
+		return frameCount;
+	}
+
+	public long[] getFramePositions() {
+		return framePositions.clone();
+	}
+
+	// One bulk copy from the mapping into the image raster
+	public BufferedImage read(int index) {
+		BufferedImage image = new BufferedImage(width, height,
+				channels == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR);
+		byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		mapping(index / framesPerMapping).get((int) ((index % framesPerMapping) * stride), data);
+		return image;
+	}
+
+	private synchronized MappedByteBuffer mapping(int chunk) {
+		if (mappings[chunk] == null) {
+			long first = (long) chunk * framesPerMapping;
+			long frames = Math.min(framesPerMapping, frameCount - first);
+			try {
+				mappings[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * stride,
+						frames * stride);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not map the frame cache", e);
+			}
+		}
+		return mappings[chunk];
+	}
+
+	@Override
+	public void close() {
+		closeQuietly(channel);
+	}
+
+	/**
+	 * Writes a cache while the frames are decoded. Frames go to a temporary file that replaces the cache only
+	 * when {@link #finish} succeeds, so an interrupted run never leaves a partial cache behind.
+	 */
+	public static class Writer {
+		private final File file;
+		private final File tempFile;
+		private final File video;
+		private final String sampler;
+		private final FileChannel channel;
+		private Header header;
+		private byte[] buffer;
+		private int frameCount;
+		private boolean failed;
+
+		private Writer(File file, File video, String sampler) throws IOException {
+			this.file = file;
+			this.tempFile = new File(file.getPath() + ".tmp");
+			this.video = video;
+			this.sampler = sampler;
+			file.getParentFile().mkdirs();
+			this.channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		}
+
+		// Returns null when the cache cannot be created; extraction then simply runs without it
+		public static Writer create(File file, File video, String sampler) {
+			try {
+				return new Writer(file, video, sampler);
+			} catch (IOException e) {
+				logger.warn("Frame cache disabled: " + e.getMessage());
+				return null;
+			}
+		}
+
+		// Frames must be appended in sampled order; returns false once the cache had to be given up
+		public boolean write(Mat frame) {
+			if (failed) {
+				return false;
+			}
+			int channels = frame.channels();
+			if (header == null) {
+				if (frame.depth() != CvType.CV_8U || (channels != 1 && channels != 3)) {
+					return fail("unsupported frame type " + CvType.typeToString(frame.type()));
+				}
+				header = new Header(video.length(), video.lastModified(), sampler, frame.cols(), frame.rows(),
+						channels, 0);
+				buffer = new byte[(int) header.stride()];
+			} else if (frame.cols() != header.width || frame.rows() != header.height || channels != header.channels) {
+				return fail("frame size changed at frame " + (frameCount + 1));
+			}
+			frame.get(0, 0, buffer);
+			try {
+				writeFully(channel, ByteBuffer.wrap(buffer), HEADER_SIZE + frameCount * header.stride());
+			} catch (IOException e) {
+				return fail(e.getMessage());
+			}
+			frameCount++;
+			return true;
+		}
+
+		public void finish(long[] framePositions) {
+			if (failed || header == null || framePositions.length != frameCount) {
+				abort();
+				return;
+			}
+			try {
+				header = new Header(header.videoSize, header.videoModified, sampler, header.width, header.height,
+						header.channels, frameCount);
+				ByteBuffer table = ByteBuffer.allocate(frameCount * 8);
+				table.asLongBuffer().put(framePositions);
+				writeFully(channel, table, header.positionsOffset());
+				writeFully(channel, header.toBuffer(), 0);
+				channel.force(false);
+				channel.close();
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				logger.info("Frame cache " + file.getName() + " written with " + frameCount + " frames.");
+			} catch (IOException e) {
+				fail(e.getMessage());
+				abort();
+			}
+		}
+
+		public void abort() {
+			closeQuietly(channel);
+			tempFile.delete();
+		}
+
+		private boolean fail(String reason) {
+			if (!failed) {
+				logger.warn("Frame cache for " + video.getName() + " skipped: " + reason);
+				failed = true;
+			}
+			return false;
+		}
+	}
+
+	private static final class Header {
+		final long videoSize;
+		final long videoModified;
+		final String sampler;
+		final int width;
+		final int height;
+		final int channels;
+		final int frameCount;
+
+		Header(long videoSize, long videoModified, String sampler, int width, int height, int channels,
+				int frameCount) {
+			this.videoSize = videoSize;
+			this.videoModified = videoModified;
+			this.sampler = sampler;
+			this.width = width;
+			this.height = height;
+			this.channels = channels;
+			this.frameCount = frameCount;
+		}
+
+		long stride() {
+			return (long) width * height * channels;
+		}
+
+		long positionsOffset() {
+			return HEADER_SIZE + frameCount * stride();
+		}
+
+		boolean matches(File video, String sampler) {
+			return videoSize == video.length() && videoModified == video.lastModified()
+					&& this.sampler.equals(sampler);
+		}
+
+		ByteBuffer toBuffer() {
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+			byte[] samplerBytes = sampler.getBytes(StandardCharsets.UTF_8);
+			buffer.putInt(MAGIC).putInt(VERSION).putLong(videoSize).putLong(videoModified).putInt(width)
+					.putInt(height).putInt(channels).putInt(frameCount)
+					.putShort((short) Math.min(samplerBytes.length, MAX_SAMPLER_BYTES))
+					.put(samplerBytes, 0, Math.min(samplerBytes.length, MAX_SAMPLER_BYTES));
+			buffer.rewind();
+			return buffer;
+		}
+
+		static Header read(FileChannel channel) throws IOException {
+			if (channel.size() < HEADER_SIZE) {
+				return null;
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, buffer, 0);
+			buffer.flip();
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return null;
+			}
+			long videoSize = buffer.getLong();
+			long videoModified = buffer.getLong();
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			int channels = buffer.getInt();
+			int frameCount = buffer.getInt();
+			byte[] samplerBytes = new byte[Math.min(buffer.getShort(), MAX_SAMPLER_BYTES)];
+			buffer.get(samplerBytes);
+			return new Header(videoSize, videoModified, new String(samplerBytes, StandardCharsets.UTF_8), width,
+					height, channels, frameCount);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of frame cache");
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	private static void closeQuietly(FileChannel channel) {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.warn("Could not close frame cache: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.video;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Drops near-identical frames, e.g. the long static stretches of dashcam and site-camera footage. Each
+ * decoded frame is reduced to a 64 bit difference hash (dHash: a 9x8 grey thumbnail, one bit per pair of
+ * horizontal neighbours), which is compared with the hashes of the last kept frames. Frames within the
+ * given Hamming distance of one of them are dropped before they are converted or stored.
+ * Not thread safe; every decoding thread uses its own instance.
+ */
+public final class FrameDeduplicator {
+
+	private static final int HASH_WIDTH = 9;
+	private static final int HASH_HEIGHT = 8;
+	private static final Size HASH_SIZE = new Size(HASH_WIDTH, HASH_HEIGHT);
+
+	private final int maxDistance;
+	// Ring of the hashes of the most recently kept frames
+	private final long[] recent;
+	private int count;
+	private int next;
+	private int dropped;
+	private final byte[] pixels = new byte[HASH_WIDTH * HASH_HEIGHT];
+	private Mat thumbnail;
+	private Mat grey;
+
+	public FrameDeduplicator(int maxDistance, int window) {
+		if (maxDistance < 0 || maxDistance > 64) {
+			throw new IllegalArgumentException("Hamming distance must be between 0 and 64: " + maxDistance);
+		}
+		if (window < 1) {
+			throw new IllegalArgumentException("Window must hold at least one frame: " + window);
+		}
+		this.maxDistance = maxDistance;
+		this.recent = new long[window];
+	}
+
+	public boolean isDuplicate(Mat frame) {
+		return isDuplicate(hash(frame));
+	}
+
+	boolean isDuplicate(long hash) {
+		for (int i = 0; i < count; i++) {
+			if (Long.bitCount(hash ^ recent[i]) <= maxDistance) {
+				dropped++;
+				return true;
+			}
+		}
+		recent[next] = hash;
+		next = (next + 1) % recent.length;
+		count = Math.min(count + 1, recent.length);
+		return false;
+	}
+
+	public int getDropped() {
+		return dropped;
+	}
+
+	// The thumbnail is taken before the colour conversion, so only 72 pixels are converted
+	long hash(Mat frame) {
+		if (thumbnail == null) {
+			thumbnail = new Mat();
+			grey = new Mat();
+		}
+		Imgproc.resize(frame, thumbnail, HASH_SIZE, 0, 0, Imgproc.INTER_AREA);
+		Mat source = thumbnail;
+		if (thumbnail.channels() == 3) {
+			Imgproc.cvtColor(thumbnail, grey, Imgproc.COLOR_BGR2GRAY);
+			source = grey;
+		} else if (thumbnail.channels() == 4) {
+			Imgproc.cvtColor(thumbnail, grey, Imgproc.COLOR_BGRA2GRAY);
+			source = grey;
+		}
+		source.get(0, 0, pixels);
+		return dHash(pixels);
+	}
+
+	// 9x8 grey pixels, row by row; a bit is set where a pixel is brighter than its right neighbour
+	static long dHash(byte[] pixels) {
+		long hash = 0;
+		for (int y = 0; y < HASH_HEIGHT; y++) {
+			for (int x = 0; x < HASH_WIDTH - 1; x++) {
+				int left = pixels[y * HASH_WIDTH + x] & 0xFF;
+				int right = pixels[y * HASH_WIDTH + x + 1] & 0xFF;
+				hash = hash << 1 | (left > right ? 1 : 0);
+			}
+		}
+		return hash;
+	}
+
+	public void release() {
+		if (thumbnail != null) {
+			thumbnail.release();
+			grey.release();
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package com.video;
+
+import java.util.Arrays;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.metrics.FrameMetrics;
+
+/**
+ * Decides which frames of a video are kept. Skipped frames are only {@code grab()}bed, kept frames are
+ * {@code retrieve()}d, so the colour conversion is paid for sampled frames only. Time based modes follow the
+ * real timestamps of the video ({@code CAP_PROP_POS_MSEC}) instead of assuming a frame rate.
+ */
+public final class FrameSampler {
+	private static final Logger logger = LoggerFactory.getLogger(FrameSampler.class);
+
+	private static final double DEFAULT_FPS = 30.0;
+	// Keyframe mode compares frames at most this often, so not every frame has to be retrieved
+	private static final double KEYFRAME_PROBE_MS = 200.0;
+	private static final Size KEYFRAME_THUMBNAIL = new Size(16, 16);
+
+	public enum Mode {
+		FRAMES_PER_MINUTE, EVERY_N_SECONDS, KEYFRAMES, FIXED_COUNT
+	}
+
+	@FunctionalInterface
+	public interface FrameHandler {
+		// Returns false to stop sampling
+		boolean onFrame(int sampleIndex, long framePosition, double timestampMs, Mat frame);
+	}
+
+	private final Mode mode;
+	private final double value;
+	// Near-duplicate removal, off while the window is 0
+	private final int duplicateDistance;
+	private final int duplicateWindow;
+
+	private FrameSampler(Mode mode, double value) {
+		this(mode, value, 0, 0);
+	}
+
+	private FrameSampler(Mode mode, double value, int duplicateDistance, int duplicateWindow) {
+		if (value <= 0) {
+			throw new IllegalArgumentException("Sampling value must be positive: " + value);
+		}
+		if (duplicateWindow < 0 || duplicateDistance < 0 || duplicateDistance > 64) {
+			throw new IllegalArgumentException("Invalid duplicate removal: distance " + duplicateDistance
+					+ ", window " + duplicateWindow);
+		}
+		this.mode = mode;
+		this.value = value;
+		this.duplicateDistance = duplicateDistance;
+		this.duplicateWindow = duplicateWindow;
+	}
+
+	public static FrameSampler framesPerMinute(int framesPerMinute) {
+		return new FrameSampler(Mode.FRAMES_PER_MINUTE, framesPerMinute);
+	}
+
+	public static FrameSampler everySeconds(double seconds) {
+		return new FrameSampler(Mode.EVERY_N_SECONDS, seconds);
+	}
+
+	// Keeps a frame whenever the picture changes by more than the given mean grey-level difference (0-255).
+	// The OpenCV Java API does not expose the packet keyframe flag, so keyframes are detected as shot changes.
+	public static FrameSampler keyframes(double threshold) {
+		return new FrameSampler(Mode.KEYFRAMES, threshold);
+	}
+
+	public static FrameSampler fixedCount(int count) {
+		return new FrameSampler(Mode.FIXED_COUNT, count);
+	}
+
+	// Sampled frames within maxDistance bits (dHash) of one of the last window kept frames are dropped
+	public FrameSampler withoutDuplicates(int maxDistance, int window) {
+		return new FrameSampler(mode, value, maxDistance, window);
+	}
+
+	public boolean isDeduplicating() {
+		return duplicateWindow > 0;
+	}
+
+	// A fresh deduplicator per decoding pass, or null when near-duplicates are kept
+	public FrameDeduplicator newDeduplicator() {
+		return isDeduplicating() ? new FrameDeduplicator(duplicateDistance, duplicateWindow) : null;
+	}
+
+	public int getDuplicateDistance() {
+		return duplicateDistance;
+	}
+
+	public int getDuplicateWindow() {
+		return duplicateWindow;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public double getValue() {
+		return value;
+	}
+
+	public int sample(VideoCapture capture, FrameHandler handler) {
+		if (mode == Mode.KEYFRAMES) {
+			return sampleKeyframes(capture, handler);
+		}
+		double fps = frameRate(capture);
+		double intervalMs = intervalMs(capture, fps);
+		Mat frame = new Mat();
+		double nextMs = 0;
+		long position = 0;
+		int sampled = 0;
+		long grabStart = System.nanoTime();
+		try {
+			while (!limitReached(sampled) && capture.grab()) {
+				double timestampMs = timestampMs(capture, position, fps);
+				// A frame is taken when it is the closest one to the target time
+				if (timestampMs >= nextMs - 500.0 / fps) {
+					if (!capture.retrieve(frame)) {
+						break;
+					}
+					FrameMetrics.recordSince(FrameMetrics.DECODE, grabStart);
+					if (!handler.onFrame(sampled++, position, timestampMs, frame)) {
+						break;
+					}
+					while (nextMs - 500.0 / fps <= timestampMs) {
+						nextMs += intervalMs;
+					}
+				}
+				position++;
+				grabStart = System.nanoTime();
+			}
+		} finally {
+			frame.release();
+		}
+		return sampled;
+	}
+
+	private int sampleKeyframes(VideoCapture capture, FrameHandler handler) {
+		double fps = frameRate(capture);
+		Mat frame = new Mat();
+		Mat thumbnail = new Mat();
+		Mat grey = new Mat();
+		Mat previous = new Mat();
+		Mat difference = new Mat();
+		double nextProbeMs = 0;
+		long position = 0;
+		int sampled = 0;
+		try {
+			while (capture.grab()) {
+				double timestampMs = timestampMs(capture, position, fps);
+				if (timestampMs >= nextProbeMs) {
+					nextProbeMs = timestampMs + KEYFRAME_PROBE_MS;
+					if (!capture.retrieve(frame)) {
+						break;
+					}
+					Imgproc.resize(frame, thumbnail, KEYFRAME_THUMBNAIL, 0, 0, Imgproc.INTER_AREA);
+					Imgproc.cvtColor(thumbnail, grey, Imgproc.COLOR_BGR2GRAY);
+					boolean changed = previous.empty();
+					if (!changed) {
+						Core.absdiff(grey, previous, difference);
+						changed = Core.mean(difference).val[0] > value;
+					}
+					if (changed) {
+						grey.copyTo(previous);
+						if (!handler.onFrame(sampled++, position, timestampMs, frame)) {
+							break;
+						}
+					}
+				}
+				position++;
+			}
+		} finally {
+			frame.release();
+			thumbnail.release();
+			grey.release();
+			previous.release();
+			difference.release();
+		}
+		return sampled;
+	}
+
+	// Source frame positions of the sampled frames, used for random access. Time based modes are computed
+	// from the frame rate without decoding; keyframe mode needs one pass over the video.
+	public long[] plan(VideoCapture capture) {
+		if (mode == Mode.KEYFRAMES) {
+			long[][] positions = { new long[64] };
+			int count = sample(capture, (index, position, timestampMs, frame) -> {
+				if (index == positions[0].length) {
+					positions[0] = Arrays.copyOf(positions[0], index * 2);
+				}
+				positions[0][index] = position;
+				return true;
+			});
+			capture.set(Videoio.CAP_PROP_POS_FRAMES, 0);
+			return Arrays.copyOf(positions[0], count);
+		}
+		double fps = frameRate(capture);
+		double intervalMs = intervalMs(capture, fps);
+		long frameCount = Math.max(0, (long) capture.get(Videoio.CAP_PROP_FRAME_COUNT));
+		long[] positions = new long[16];
+		int count = 0;
+		long last = -1;
+		for (double targetMs = 0; !limitReached(count); targetMs += intervalMs) {
+			long position = Math.max(0, (long) Math.ceil(targetMs * fps / 1000.0 - 0.5));
+			if (position >= frameCount) {
+				break;
+			}
+			if (position == last) {
+				continue;
+			}
+			if (count == positions.length) {
+				positions = Arrays.copyOf(positions, count * 2);
+			}
+			positions[count++] = position;
+			last = position;
+		}
+		return Arrays.copyOf(positions, count);
+	}
+
+	private boolean limitReached(int sampled) {
+		return mode == Mode.FIXED_COUNT && sampled >= value;
+	}
+
+	private double intervalMs(VideoCapture capture, double fps) {
+		switch (mode) {
+		case FRAMES_PER_MINUTE:
+			return 60000.0 / value;
+		case EVERY_N_SECONDS:
+			return value * 1000.0;
+		case FIXED_COUNT:
+			double durationMs = capture.get(Videoio.CAP_PROP_FRAME_COUNT) / fps * 1000.0;
+			return Math.max(durationMs / value, 1000.0 / fps);
+		default:
+			throw new IllegalStateException("No fixed interval for " + mode);
+		}
+	}
+
+	static double frameRate(VideoCapture capture) {
+		double fps = capture.get(Videoio.CAP_PROP_FPS);
+		if (!(fps > 0)) {
+			logger.warn("Video does not report a frame rate, assuming " + DEFAULT_FPS + " fps.");
+			return DEFAULT_FPS;
+		}
+		return fps;
+	}
+
+	// Some backends report no timestamp; fall back to the nominal frame rate
+	private static double timestampMs(VideoCapture capture, long position, double fps) {
+		double timestampMs = capture.get(Videoio.CAP_PROP_POS_MSEC);
+		if (timestampMs <= 0 && position > 0) {
+			return position * 1000.0 / fps;
+		}
+		return timestampMs;
+	}
+
+	@Override
+	public String toString() {
+		return mode + "(" + value + ")"
+				+ (isDeduplicating() ? "-dedup(" + duplicateDistance + "," + duplicateWindow + ")" : "");
+	}
+}
@@ -0,0 +1,49 @@
+package com.video;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+
+/**
+ * Random access to the sampled frames of a video by sampled index.
+ * Implementations decode frames on demand, so callers never hold the whole video in memory.
+ */
+public interface FrameSource extends AutoCloseable {
+
+    // Notified from the producer thread while a streaming source is still discovering frames
+    interface Listener {
+        // progress is the scanned fraction of the video, 0 to 1
+        void framesAdded(int size, double progress, boolean complete);
+    }
+
+    // Frames found so far; grows until the source is complete
+    int size();
+
+    default boolean isComplete() {
+        return true;
+    }
+
+    // Sources that are complete from the start report their size once, right away
+    default void addListener(Listener listener) {
+        listener.framesAdded(size(), 1.0, true);
+    }
+
+    BufferedImage getFrame(int index);
+
+    // Thumbnails of the frames as they become available, or null when the source makes none
+    default ThumbnailCache getThumbnails() {
+        return null;
+    }
+
+    // Video frame size when the frames are downscaled proxies, null when they are full resolution
+    default Dimension getOriginalSize() {
+        return null;
+    }
+
+    // Exact pixels for masking and saving; proxy sources decode the frame from the video again
+    default BufferedImage getFullResolutionFrame(int index) {
+        return getFrame(index);
+    }
+
+    @Override
+    void close();
+}
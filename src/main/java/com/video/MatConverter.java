@@ -0,0 +1,97 @@
+package com.video;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import com.metrics.FrameMetrics;
+
+/**
+ * Converts OpenCV frames to {@link BufferedImage}s with a single bulk copy straight into the raster.
+ * OpenCV's BGR layout is the same as {@link BufferedImage#TYPE_3BYTE_BGR}, so no per-pixel work is needed.
+ */
+public final class MatConverter {
+
+	// Scratch Mat for frames that need a colour conversion first (e.g. BGRA)
+	private static final ThreadLocal<Mat> SCRATCH = ThreadLocal.withInitial(Mat::new);
+	private static final ThreadLocal<Mat> PROXY = ThreadLocal.withInitial(Mat::new);
+
+	private MatConverter() {
+	}
+
+	public static BufferedImage toBufferedImage(Mat mat) {
+		return toBufferedImage(mat, (BufferedImage) null);
+	}
+
+	// Writes into reuse when it has the right size and type, otherwise allocates a new image
+	public static BufferedImage toBufferedImage(Mat mat, BufferedImage reuse) {
+		long start = System.nanoTime();
+		Mat source = bgrOrGrey(mat);
+		int type = imageType(source);
+		BufferedImage image = reuse;
+		if (image == null || image.getWidth() != source.cols() || image.getHeight() != source.rows()
+				|| image.getType() != type) {
+			image = new BufferedImage(source.cols(), source.rows(), type);
+		}
+		copy(source, image);
+		FrameMetrics.recordSince(FrameMetrics.CONVERSION, start);
+		return image;
+	}
+
+	// Shrinks frames whose longer edge exceeds maxEdge, natively and before any conversion, into a per-thread
+	// scratch Mat that is valid until the next call. Smaller frames and maxEdge 0 return the frame itself.
+	public static Mat proxy(Mat frame, int maxEdge) {
+		if (maxEdge <= 0 || Math.max(frame.cols(), frame.rows()) <= maxEdge) {
+			return frame;
+		}
+		double scale = maxEdge / (double) Math.max(frame.cols(), frame.rows());
+		Mat proxy = PROXY.get();
+		Imgproc.resize(frame, proxy, new Size(Math.max(1, Math.round(frame.cols() * scale)),
+				Math.max(1, Math.round(frame.rows() * scale))), 0, 0, Imgproc.INTER_AREA);
+		return proxy;
+	}
+
+	// A new BGR or grey Mat with the pixels of the image, which the caller releases. Other image types (e.g. the
+	// int RGB frames of the render cache) are drawn into a BGR copy first.
+	public static Mat toMat(BufferedImage image) {
+		BufferedImage source = image;
+		if (source.getType() != BufferedImage.TYPE_3BYTE_BGR && source.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+			source = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+			Graphics2D g = source.createGraphics();
+			g.drawImage(image, 0, 0, null);
+			g.dispose();
+		}
+		boolean grey = source.getType() == BufferedImage.TYPE_BYTE_GRAY;
+		Mat mat = new Mat(source.getHeight(), source.getWidth(), grey ? CvType.CV_8UC1 : CvType.CV_8UC3);
+		mat.put(0, 0, ((DataBufferByte) source.getRaster().getDataBuffer()).getData());
+		return mat;
+	}
+
+	private static void copy(Mat source, BufferedImage image) {
+		byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		source.get(0, 0, data);
+	}
+
+	// The CvType constants are not compile-time constants, so this cannot be a switch
+	private static Mat bgrOrGrey(Mat mat) {
+		int type = mat.type();
+		if (type == CvType.CV_8UC3 || type == CvType.CV_8UC1) {
+			return mat;
+		}
+		if (type == CvType.CV_8UC4) {
+			Mat scratch = SCRATCH.get();
+			Imgproc.cvtColor(mat, scratch, Imgproc.COLOR_BGRA2BGR);
+			return scratch;
+		}
+		throw new IllegalArgumentException("Unsupported frame type: " + CvType.typeToString(type));
+	}
+
+	private static int imageType(Mat mat) {
+		return mat.channels() == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR;
+	}
+}
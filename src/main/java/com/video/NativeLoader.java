@@ -0,0 +1,70 @@
+package com.video;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.opencv.opencv_java;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the OpenCV native library once per process. A library file in the working directory
+ * ({@code opencv_java490.dll}, {@code libopencv_java490.so}, ...) takes precedence; otherwise the build for the
+ * current platform is unpacked from the bytedeco jars. Loading can start in the background, e.g. while the
+ * user picks a video, and everything that needs OpenCV waits for it in {@link #ensureLoaded}.
+ */
+public final class NativeLoader {
+	private static final Logger logger = LoggerFactory.getLogger(NativeLoader.class);
+
+	private static final String LIBRARY_NAME = "opencv_java490";
+
+	private static final FutureTask<Void> LOAD = new FutureTask<>(NativeLoader::load, null);
+	private static final AtomicBoolean started = new AtomicBoolean();
+
+	private NativeLoader() {
+	}
+
+	public static void loadInBackground() {
+		if (started.compareAndSet(false, true)) {
+			Thread thread = new Thread(LOAD, "opencv-loader");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	// Loads on the calling thread unless a background load is already running, in which case it waits for it
+	public static void ensureLoaded() {
+		started.set(true);
+		LOAD.run();
+		try {
+			LOAD.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Could not load the OpenCV native library", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading the OpenCV native library", e);
+		}
+	}
+
+	private static void load() {
+		long start = System.nanoTime();
+		File library = new File(System.mapLibraryName(LIBRARY_NAME));
+		if (library.isFile()) {
+			try {
+				System.load(library.getAbsolutePath());
+				logger.info("Loaded " + library.getAbsolutePath() + " in " + (System.nanoTime() - start) / 1_000_000
+						+ " ms.");
+				return;
+			} catch (UnsatisfiedLinkError e) {
+				logger.error("Could not load " + library.getAbsolutePath() + ", using the bundled OpenCV: "
+						+ e.getMessage());
+			}
+		}
+		Loader.load(opencv_java.class);
+		logger.info("Loaded the bundled OpenCV library for " + Loader.getPlatform() + " in "
+				+ (System.nanoTime() - start) / 1_000_000 + " ms.");
+	}
+}
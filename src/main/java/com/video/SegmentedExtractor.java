@@ -0,0 +1,153 @@
+package com.video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes one video with several {@link VideoCapture}s in parallel. The sampling plan is split into
+ * contiguous ranges of sampled indexes; each range seeks to its first frame and reads forward with its own
+ * decoder. Because ranges partition the plan, no frame is duplicated or dropped at segment boundaries and
+ * every frame keeps its sampled index. The plan assumes a constant frame rate; keyframe sampling depends
+ * on the previous kept frame and always runs as one sequential segment.
+ */
+public class SegmentedExtractor {
+	private static final Logger logger = LoggerFactory.getLogger(SegmentedExtractor.class);
+
+	// Segments shorter than this spend more time seeking than decoding
+	private static final int MIN_FRAMES_PER_SEGMENT = 4;
+
+	private final String videoPath;
+	private final FrameSampler sampler;
+	private final long[] framePositions;
+	private final double fps;
+	private final AtomicInteger dropped = new AtomicInteger();
+
+	public SegmentedExtractor(String videoPath, FrameSampler sampler) {
+		this.videoPath = videoPath;
+		this.sampler = sampler;
+		if (isSegmentable()) {
+			VideoCapture capture = new VideoCapture(videoPath);
+			try {
+				this.framePositions = capture.isOpened() ? sampler.plan(capture) : new long[0];
+				this.fps = FrameSampler.frameRate(capture);
+			} finally {
+				capture.release();
+			}
+		} else {
+			this.framePositions = null;
+			this.fps = 0;
+		}
+	}
+
+	public boolean isSegmentable() {
+		return sampler.getMode() != FrameSampler.Mode.KEYFRAMES;
+	}
+
+	// Number of sampled frames, or -1 when it is only known after a sequential pass
+	public int size() {
+		return framePositions != null ? framePositions.length : -1;
+	}
+
+	// Near-duplicates dropped by the last run; each segment compares with its own recent frames only
+	public int getDropped() {
+		return dropped.get();
+	}
+
+	// The handler is called concurrently from the segment threads, each frame with its sampled index. Dropped
+	// near-duplicates leave their index out.
+	public int run(int segments, FrameSampler.FrameHandler handler) throws InterruptedException {
+		dropped.set(0);
+		if (!isSegmentable()) {
+			VideoCapture capture = new VideoCapture(videoPath);
+			FrameDeduplicator deduplicator = sampler.newDeduplicator();
+			try {
+				if (deduplicator == null) {
+					return sampler.sample(capture, handler);
+				}
+				int sampled = sampler.sample(capture, (index, position, timestampMs, frame) -> deduplicator
+						.isDuplicate(frame) || handler.onFrame(index, position, timestampMs, frame));
+				dropped.set(deduplicator.getDropped());
+				return sampled - deduplicator.getDropped();
+			} finally {
+				if (deduplicator != null) {
+					deduplicator.release();
+				}
+				capture.release();
+			}
+		}
+		int count = Math.max(1, Math.min(segments, framePositions.length / MIN_FRAMES_PER_SEGMENT));
+		logger.info("Decoding " + framePositions.length + " sampled frames in " + count + " segments.");
+		AtomicInteger decoded = new AtomicInteger();
+		AtomicBoolean stopped = new AtomicBoolean();
+		ExecutorService executor = Executors.newFixedThreadPool(count, runnable -> {
+			Thread thread = new Thread(runnable, "segment-decoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int segment = 0; segment < count; segment++) {
+				int from = (int) ((long) framePositions.length * segment / count);
+				int to = (int) ((long) framePositions.length * (segment + 1) / count);
+				futures.add(executor.submit(() -> decodeSegment(from, to, handler, decoded, stopped)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Segment decoding failed for " + videoPath, e.getCause());
+		} finally {
+			// After a failure or an interrupt the other segments stop before their next frame
+			stopped.set(true);
+			executor.shutdownNow();
+		}
+		return decoded.get();
+	}
+
+	private void decodeSegment(int from, int to, FrameSampler.FrameHandler handler, AtomicInteger decoded,
+			AtomicBoolean stopped) {
+		VideoCapture capture = new VideoCapture(videoPath);
+		Mat frame = new Mat();
+		FrameDeduplicator deduplicator = sampler.newDeduplicator();
+		try {
+			CaptureCursor cursor = new CaptureCursor(capture);
+			for (int index = from; index < to && !stopped.get(); index++) {
+				long position = framePositions[index];
+				if (!cursor.read(position, frame)) {
+					logger.error("Could not decode frame at position " + position + " of " + videoPath);
+					break;
+				}
+				if (deduplicator != null && deduplicator.isDuplicate(frame)) {
+					continue;
+				}
+				if (!handler.onFrame(index, position, position * 1000.0 / fps, frame)) {
+					stopped.set(true);
+					break;
+				}
+				decoded.incrementAndGet();
+			}
+		} catch (RuntimeException e) {
+			// run only sees the failure once it gets to this segment's future
+			stopped.set(true);
+			throw e;
+		} finally {
+			if (deduplicator != null) {
+				dropped.addAndGet(deduplicator.getDropped());
+				deduplicator.release();
+			}
+			frame.release();
+			capture.release();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.video;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.imageio.ImageIO;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Small JPEG thumbnails of the sampled frames, a few KB each, packed into one growing byte array instead of
+ * one object per frame. They are made from the decoded frames while the video is extracted and decoded again
+ * only when a thumbnail is shown. A finished set is stored next to the frame cache ({@link #location}) and
+ * is valid for the same video size, modification time and sampler.
+ */
+public class ThumbnailCache {
+	private static final Logger logger = LoggerFactory.getLogger(ThumbnailCache.class);
+
+	public static final int MAX_EDGE = 160;
+	private static final int JPEG_QUALITY = 80;
+	private static final int MAGIC = 0x54484D42; // "THMB"
+	private static final int VERSION = 1;
+
+	public interface Listener {
+		// Called on the thread that made the thumbnail
+		void thumbnailAdded(int index);
+	}
+
+	private byte[] data = new byte[64 * 1024];
+	private int used;
+	// Per frame index: offset into data and length, -1 while there is no thumbnail
+	private int[] offsets = new int[64];
+	private int[] lengths = new int[64];
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	public ThumbnailCache() {
+		Arrays.fill(offsets, -1);
+	}
+
+	// <outputRoot>/<videoName>/<videoFile>.thumbs, next to the frame cache
+	public static File location(String videoPath) {
+		return new File(VideoFrameExtractor.videoDirectory(null, videoPath), new File(videoPath).getName() + ".thumbs");
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	// Downscaled and encoded by OpenCV, straight from the decoded frame
+	public void put(int index, Mat frame) {
+		double scale = Math.min(1.0, MAX_EDGE / (double) Math.max(frame.cols(), frame.rows()));
+		Mat thumbnail = new Mat();
+		MatOfByte encoded = new MatOfByte();
+		try {
+			Imgproc.resize(frame, thumbnail, new Size(Math.max(1, Math.round(frame.cols() * scale)),
+					Math.max(1, Math.round(frame.rows() * scale))), 0, 0, Imgproc.INTER_AREA);
+			MatOfInt parameters = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, JPEG_QUALITY);
+			if (Imgcodecs.imencode(".jpg", thumbnail, encoded, parameters)) {
+				put(index, encoded.toArray());
+			}
+		} finally {
+			thumbnail.release();
+			encoded.release();
+		}
+	}
+
+	// For frames that are only available as images, e.g. read from the frame cache
+	public void put(int index, BufferedImage frame) {
+		double scale = Math.min(1.0, MAX_EDGE / (double) Math.max(frame.getWidth(), frame.getHeight()));
+		BufferedImage thumbnail = new BufferedImage(Math.max(1, (int) Math.round(frame.getWidth() * scale)),
+				Math.max(1, (int) Math.round(frame.getHeight() * scale)), BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = thumbnail.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(frame, 0, 0, thumbnail.getWidth(), thumbnail.getHeight(), null);
+		g.dispose();
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream(8 * 1024);
+		try {
+			ImageIO.write(thumbnail, "jpg", encoded);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not encode thumbnail " + index, e);
+		}
+		put(index, encoded.toByteArray());
+	}
+
+	private void put(int index, byte[] jpeg) {
+		synchronized (this) {
+			if (index >= offsets.length) {
+				int previous = offsets.length;
+				int length = Math.max(index + 1, previous * 2);
+				offsets = Arrays.copyOf(offsets, length);
+				lengths = Arrays.copyOf(lengths, length);
+				Arrays.fill(offsets, previous, length, -1);
+			}
+			if (used + jpeg.length > data.length) {
+				data = Arrays.copyOf(data, Math.max(used + jpeg.length, data.length * 2));
+			}
+			System.arraycopy(jpeg, 0, data, used, jpeg.length);
+			offsets[index] = used;
+			lengths[index] = jpeg.length;
+			used += jpeg.length;
+		}
+		for (Listener listener : listeners) {
+			listener.thumbnailAdded(index);
+		}
+	}
+
+	public synchronized boolean contains(int index) {
+		return index < offsets.length && offsets[index] >= 0;
+	}
+
+	// Decodes the thumbnail; null when it has not been made yet
+	public BufferedImage get(int index) {
+		ByteArrayInputStream jpeg;
+		synchronized (this) {
+			if (!contains(index)) {
+				return null;
+			}
+			jpeg = new ByteArrayInputStream(data, offsets[index], lengths[index]);
+		}
+		try {
+			return ImageIO.read(jpeg);
+		} catch (IOException e) {
+			logger.warn("Could not decode thumbnail " + index + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	// Bytes held by the packed thumbnails
+	public synchronized int byteSize() {
+		return used;
+	}
+
+	// Writes the thumbnails of frames 0 to count - 1 to a temporary file that then replaces the old one
+	public void save(File file, File video, String sampler, int count) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tempFile.toPath()), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(video.length());
+			out.writeLong(video.lastModified());
+			out.writeUTF(sampler);
+			out.writeInt(count);
+			synchronized (this) {
+				for (int i = 0; i < count; i++) {
+					int length = contains(i) ? lengths[i] : 0;
+					out.writeInt(length);
+					out.write(data, length > 0 ? offsets[i] : 0, length);
+				}
+			}
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Returns null when there is no file or it belongs to another version of the video or another sampler
+	public static ThumbnailCache load(File file, File video, String sampler) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != video.length()
+					|| in.readLong() != video.lastModified() || !in.readUTF().equals(sampler)) {
+				logger.info("Thumbnails " + file.getName() + " are out of date.");
+				return null;
+			}
+			int count = in.readInt();
+			ThumbnailCache thumbnails = new ThumbnailCache();
+			for (int i = 0; i < count; i++) {
+				int length = in.readInt();
+				if (length > 0) {
+					byte[] jpeg = new byte[length];
+					in.readFully(jpeg);
+					thumbnails.put(i, jpeg);
+				}
+			}
+			logger.info("Loaded " + count + " thumbnails from " + file.getName() + ".");
+			return thumbnails;
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Could not read thumbnails " + file.getName() + ": " + e.getMessage());
+			return null;
+		}
+	}
+}
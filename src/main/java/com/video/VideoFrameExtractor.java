@@ -9,11 +9,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.videoio.VideoCapture;
 import org.opencv.videoio.Videoio;
 import org.slf4j.Logger;
@@ -24,58 +27,310 @@ public class VideoFrameExtractor {
 	private static final Logger logger = LoggerFactory.getLogger(VideoFrameExtractor.class);
 
     public static List<BufferedImage> extractFrames(String videoPath, int framesPerMinute) {
+        return extractFrames(videoPath, FrameSampler.framesPerMinute(framesPerMinute));
+    }
+
+    public static List<BufferedImage> extractFrames(String videoPath, FrameSampler sampler) {
+        return extractFrames(videoPath, sampler, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Decodes the video in up to the given number of parallel segments; the list is in sampled order
+    public static List<BufferedImage> extractFrames(String videoPath, FrameSampler sampler, int segments) {
+        return extractFrames(videoPath, sampler, segments, 0);
+    }
+
+    // With a proxyEdge above 0, frames are shrunk to at most that many pixels on their longer side before they
+    // are converted, which saves time and heap by the square of the scale
+    public static List<BufferedImage> extractFrames(String videoPath, FrameSampler sampler, int segments,
+            int proxyEdge) {
     	
-        if(!loadLib("opencv_java490")) {
-        	System.exit(0);
-        }
-        List<BufferedImage> images = new ArrayList<>();
+        NativeLoader.ensureLoaded();
         VideoCapture capture = new VideoCapture(videoPath);
         logger.info("Generating frame for the video.");
         // Generate video metadata
         generateMetadata(videoPath, capture);
+        capture.release();
         
-        Mat frame = new Mat();
-        int frameCount = 0;
+        SegmentedExtractor extractor = new SegmentedExtractor(videoPath, sampler);
+        List<BufferedImage> images;
+        int sampled;
+        try {
+            if (extractor.isSegmentable()) {
+                // Segments finish out of order, so every frame goes straight to its sampled index
+                BufferedImage[] frames = new BufferedImage[extractor.size()];
+                sampled = extractor.run(segments, (index, position, timestampMs, frame) -> {
+                    frames[index] = MatConverter.toBufferedImage(MatConverter.proxy(frame, proxyEdge));
+                    return true;
+                });
+                images = new ArrayList<>(sampled);
+                // A segment that hit an undecodable frame leaves a gap; keep the order of the rest
+                for (BufferedImage image : frames) {
+                    if (image != null) {
+                        images.add(image);
+                    }
+                }
+            } else {
+                List<BufferedImage> sequential = new ArrayList<>();
+                // Skipped frames are only grabbed; the sampler retrieves the ones it keeps
+                sampled = extractor.run(1, (index, position, timestampMs, frame) -> {
+                    sequential.add(MatConverter.toBufferedImage(MatConverter.proxy(frame, proxyEdge)));
+                    return true;
+                });
+                images = sequential;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while extracting " + videoPath, e);
+        }
+        logger.info("Sampled " + sampled + " frames with " + sampler + ".");
+        recordDroppedFrames(videoPath, null, sampler, extractor.getDropped());
+        
+        return images;
+    }
 
-        // Calculate the interval of frames to extract based on the provided frames per minute
-        int interval = (int) Math.round(30.0 / (framesPerMinute / 60.0));
+    // Opens the video for lazy, random access by sampled index instead of decoding it up front
+    public static FrameSource openFrameSource(String videoPath, int framesPerMinute) {
+        return openFrameSource(videoPath, FrameSampler.framesPerMinute(framesPerMinute));
+    }
 
-        while (capture.read(frame)) {
-            if (frameCount % interval == 0) {
-                BufferedImage bufferedImage = matToBufferedImage(frame);
-                images.add(bufferedImage);
+    // Random access needs the plan up front, so near-duplicates, which are only found by decoding, are kept
+    public static FrameSource openFrameSource(String videoPath, FrameSampler sampler) {
+        NativeLoader.ensureLoaded();
+        VideoCapture capture = new VideoCapture(videoPath);
+        logger.info("Opening frame source for the video.");
+        generateMetadata(videoPath, capture);
+        return new VideoFrameSource(capture, sampler.plan(capture));
+    }
+    
+    // Returns at once with an empty source that a background producer fills while the caller already uses it;
+    // listeners on the source see every frame as it is found. A video opened before with the same sampler is
+    // served from its frame cache without decoding.
+    public static FrameSource streamFrameSource(String videoPath, FrameSampler sampler) {
+        return streamFrameSource(videoPath, sampler, 0);
+    }
+
+    // With a proxyEdge above 0 the source keeps frames of at most that many pixels on their longer side, also in
+    // its frame cache, and decodes full resolution frames only on request
+    public static FrameSource streamFrameSource(String videoPath, FrameSampler sampler, int proxyEdge) {
+        String cacheKey = proxyEdge > 0 ? sampler + "-proxy(" + proxyEdge + ")" : sampler.toString();
+        FrameCacheFile diskCache = FrameCacheFile.open(FrameCacheFile.location(videoPath), new File(videoPath),
+                cacheKey);
+        if (diskCache != null) {
+            ThumbnailCache thumbnails = ThumbnailCache.load(ThumbnailCache.location(videoPath), new File(videoPath),
+                    sampler.toString());
+            VideoFrameSource source = new VideoFrameSource(diskCache,
+                    thumbnails != null ? thumbnails : new ThumbnailCache(), VideoFrameSource.DEFAULT_CACHE_SIZE);
+            if (proxyEdge > 0) {
+                NativeLoader.ensureLoaded();
+                source.useProxies(videoPath, proxyEdge);
             }
-            frameCount++;
+            if (thumbnails == null) {
+                Thread thumbnailer = new Thread(() -> makeThumbnails(videoPath, sampler, diskCache, source),
+                        "thumbnailer");
+                thumbnailer.setDaemon(true);
+                thumbnailer.start();
+            }
+            return source;
         }
-        capture.release();
-        
+        NativeLoader.ensureLoaded();
+        VideoFrameSource source = new VideoFrameSource(new VideoCapture(videoPath), VideoFrameSource.DEFAULT_CACHE_SIZE);
+        if (proxyEdge > 0) {
+            source.useProxies(videoPath, proxyEdge);
+        }
+        Thread producer = new Thread(() -> produceFrames(videoPath, sampler, cacheKey, proxyEdge, source),
+                "frame-producer");
+        producer.setDaemon(true);
+        producer.start();
+        return source;
+    }
 
-        
-        return images;
+    private static void produceFrames(String videoPath, FrameSampler sampler, String cacheKey, int proxyEdge,
+            VideoFrameSource source) {
+        VideoCapture capture = new VideoCapture(videoPath);
+        FrameCacheFile.Writer diskCache = null;
+        try {
+            generateMetadata(videoPath, capture);
+            if (!capture.isOpened()) {
+                return;
+            }
+            diskCache = FrameCacheFile.Writer.create(FrameCacheFile.location(videoPath), new File(videoPath),
+                    cacheKey);
+            FrameCacheFile.Writer writer = diskCache;
+            long[] positions;
+            if (sampler.getMode() == FrameSampler.Mode.KEYFRAMES || sampler.isDeduplicating()) {
+                // Keyframes and near-duplicates are only known after decoding; hand each kept frame over as soon
+                // as it is found. Duplicates are dropped before they are converted or cached.
+                double frameCount = Math.max(1, capture.get(Videoio.CAP_PROP_FRAME_COUNT));
+                FrameDeduplicator deduplicator = sampler.newDeduplicator();
+                long[][] found = { new long[64] };
+                int[] count = { 0 };
+                try {
+                    sampler.sample(capture, (index, position, timestampMs, frame) -> {
+                        if (deduplicator != null && deduplicator.isDuplicate(frame)) {
+                            return !source.isClosed();
+                        }
+                        if (count[0] == found[0].length) {
+                            found[0] = Arrays.copyOf(found[0], count[0] * 2);
+                        }
+                        found[0][count[0]++] = position;
+                        Mat kept = MatConverter.proxy(frame, proxyEdge);
+                        source.getThumbnails().put(count[0] - 1, kept);
+                        if (writer != null) {
+                            writer.write(kept);
+                        }
+                        return source.append(position, MatConverter.toBufferedImage(kept),
+                                Math.min(1.0, (position + 1) / frameCount));
+                    });
+                } finally {
+                    if (deduplicator != null) {
+                        recordDroppedFrames(videoPath, null, sampler, deduplicator.getDropped());
+                        deduplicator.release();
+                    }
+                }
+                positions = Arrays.copyOf(found[0], count[0]);
+                source.finish();
+            } else {
+                positions = sampler.plan(capture);
+                for (int i = 0; i < positions.length; i++) {
+                    if (!source.append(positions[i], null, (i + 1) / (double) positions.length)) {
+                        break;
+                    }
+                }
+                // The annotator can start right away; the frames are decoded into the cache in the background
+                source.finish();
+                if (!cacheFrames(capture, positions, proxyEdge, writer, source)) {
+                    return;
+                }
+            }
+            if (writer != null && !source.isClosed()) {
+                writer.finish(positions);
+                diskCache = null;
+                saveThumbnails(videoPath, sampler, source.getThumbnails(), positions.length);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Frame extraction stopped for " + videoPath, e);
+        } finally {
+            if (diskCache != null) {
+                diskCache.abort();
+            }
+            capture.release();
+            source.finish();
+        }
+    }
+
+    // Decodes the planned frames once in the background, into the frame cache when there is one and into the
+    // thumbnails of the source
+    private static boolean cacheFrames(VideoCapture capture, long[] positions, int proxyEdge,
+            FrameCacheFile.Writer writer, VideoFrameSource source) {
+        CaptureCursor cursor = new CaptureCursor(capture);
+        ThumbnailCache thumbnails = source.getThumbnails();
+        Mat frame = new Mat();
+        try {
+            for (int i = 0; i < positions.length; i++) {
+                if (source.isClosed() || !cursor.read(positions[i], frame)) {
+                    return false;
+                }
+                Mat kept = MatConverter.proxy(frame, proxyEdge);
+                if (writer != null && !writer.write(kept)) {
+                    return false;
+                }
+                thumbnails.put(i, kept);
+            }
+            return true;
+        } finally {
+            frame.release();
+        }
     }
     
-    private static BufferedImage matToBufferedImage(Mat mat) {
-        // Convert BGR Mat to BufferedImage
-        int width = mat.cols();
-        int height = mat.rows();
-        int channels = mat.channels();
-        byte[] data = new byte[width * height * channels];
-        mat.get(0, 0, data);
-
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int r = data[y * width * channels + x * channels + 2] & 0xFF;
-                int g = data[y * width * channels + x * channels + 1] & 0xFF;
-                int b = data[y * width * channels + x * channels] & 0xFF;
-                int rgb = (r << 16) | (g << 8) | b;
-                image.setRGB(x, y, rgb);
+    // Thumbnails for a frame cache written before thumbnails existed, made from the cached frames
+    private static void makeThumbnails(String videoPath, FrameSampler sampler, FrameCacheFile diskCache,
+            VideoFrameSource source) {
+        ThumbnailCache thumbnails = source.getThumbnails();
+        try {
+            for (int i = 0; i < diskCache.size(); i++) {
+                if (source.isClosed()) {
+                    return;
+                }
+                thumbnails.put(i, diskCache.read(i));
             }
+            saveThumbnails(videoPath, sampler, thumbnails, diskCache.size());
+        } catch (RuntimeException e) {
+            logger.error("Could not make thumbnails for " + videoPath, e);
         }
-        return image;
+    }
+
+    private static void saveThumbnails(String videoPath, FrameSampler sampler, ThumbnailCache thumbnails, int count) {
+        try {
+            thumbnails.save(ThumbnailCache.location(videoPath), new File(videoPath), sampler.toString(), count);
+            logger.info("Saved " + count + " thumbnails (" + thumbnails.byteSize() / 1024 + " KB) for " + videoPath);
+        } catch (IOException e) {
+            logger.error("Could not save thumbnails for " + videoPath, e);
+        }
+    }
+
+    // Streams the sampled frames straight from the decoder to <outputRoot>/<videoName>/frames, so nothing is
+    // collected in memory and frames skip the BufferedImage conversion entirely
+    public static ExtractionResult extractToDirectory(String videoPath, FrameSampler sampler, File outputRoot,
+            String imageFormat) throws IOException {
+        return extractToDirectory(videoPath, sampler, outputRoot, imageFormat, 1);
+    }
+
+    public static ExtractionResult extractToDirectory(String videoPath, FrameSampler sampler, File outputRoot,
+            String imageFormat, int segments) throws IOException {
+        return extractToDirectory(videoPath, sampler, outputRoot, imageFormat, segments, null);
+    }
+
+    // With a masker, faces and plates are blurred on the decoding threads before each frame is written
+    public static ExtractionResult extractToDirectory(String videoPath, FrameSampler sampler, File outputRoot,
+            String imageFormat, int segments, AutoMasker masker) throws IOException {
+        NativeLoader.ensureLoaded();
+        VideoCapture capture = new VideoCapture(videoPath);
+        try {
+            if (!capture.isOpened()) {
+                throw new IOException("Could not open video file: " + videoPath);
+            }
+            generateMetadata(videoPath, capture, outputRoot);
+        } finally {
+            capture.release();
+        }
+        long start = System.nanoTime();
+        File framesDir = new File(videoDirectory(outputRoot, videoPath), "frames");
+        framesDir.mkdirs();
+        SegmentedExtractor extractor = new SegmentedExtractor(videoPath, sampler);
+        AtomicInteger masked = new AtomicInteger();
+        int sampled;
+        try {
+            sampled = extractor.run(segments, (index, position, timestampMs, frame) -> {
+                if (masker != null) {
+                    masked.addAndGet(masker.mask(frame).size());
+                }
+                String fileName = String.format("frame_%06d.%s", index + 1, imageFormat);
+                if (!Imgcodecs.imwrite(new File(framesDir, fileName).getPath(), frame)) {
+                    logger.error("Could not write " + fileName + " for " + videoPath);
+                    return false;
+                }
+                return true;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting " + videoPath, e);
+        }
+        recordDroppedFrames(videoPath, outputRoot, sampler, extractor.getDropped());
+        return new ExtractionResult(videoPath, sampled, System.nanoTime() - start, masked.get());
+    }
+
+    // Output folder of a video, named after the video file without its extension
+    public static File videoDirectory(File outputRoot, String videoPath) {
+        String title = new File(videoPath).getName();
+        int extension = title.lastIndexOf('.');
+        return new File(outputRoot, extension > 0 ? title.substring(0, extension) : title);
     }
 
     private static void generateMetadata(String videoPath, VideoCapture capture) {
+        generateMetadata(videoPath, capture, null);
+    }
+
+    private static void generateMetadata(String videoPath, VideoCapture capture, File outputRoot) {
         // Check if the video capture is opened successfully
         if (!capture.isOpened()) {
         	logger.error("Could not open video file.");
@@ -98,12 +353,11 @@ public class VideoFrameExtractor {
                 title, duration, width, height, frameRate,"Bounding Box", " ","Cyient Annotator", dateTime);
 
         // Print metadata for debugging
-		String videoNameWithoutExtension = title.substring(0, title.lastIndexOf('.'));
-        File video = new File(videoNameWithoutExtension);
+        File video = videoDirectory(outputRoot, videoPath);
 		if (!video.exists()) {
-			video.mkdir();
+			video.mkdirs();
 		}
-		File textFile = new File(video,title + "_metadata.txt");
+		File textFile = metadataFile(videoPath, outputRoot);
         // Write metadata to text file
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(textFile))) {
             writer.write(metadata);
@@ -114,26 +368,22 @@ public class VideoFrameExtractor {
             System.err.println("Error writing metadata file: " + e.getMessage());
         }
     }
-    
-    private static boolean loadLib(final String libName) {
-        final String fileName = libName + ".dll";
-        try {
-            File dllFile = new File(fileName);
-            if (!dllFile.exists()) {
-                logger.error("DLL file not found: " + dllFile.getAbsolutePath());
-                return false;
-            }
 
-            System.load(dllFile.getAbsolutePath());
-        } catch (UnsatisfiedLinkError e) {
-            logger.error("UnsatisfiedLinkError: " + e.getMessage());
-            return false;
-        } catch (Exception e) {
-            logger.error("Cannot load DLL: " + e);
-            return false;
-        }
-        return true;
+    private static File metadataFile(String videoPath, File outputRoot) {
+        return new File(videoDirectory(outputRoot, videoPath), new File(videoPath).getName() + "_metadata.txt");
     }
 
-
+    // Adds the near-duplicate count to the metadata file written before the extraction
+    private static void recordDroppedFrames(String videoPath, File outputRoot, FrameSampler sampler, int dropped) {
+        if (!sampler.isDeduplicating()) {
+            return;
+        }
+        logger.info("Dropped " + dropped + " near-duplicate frames of " + videoPath + ".");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(metadataFile(videoPath, outputRoot), true))) {
+            writer.write(String.format("Near-Duplicate Filter; Max Hamming Distance; Window; Frames Dropped\n"
+                    + "dHash; %d; %d; %d\n", sampler.getDuplicateDistance(), sampler.getDuplicateWindow(), dropped));
+        } catch (IOException e) {
+            logger.error("Error writing metadata file: ", e);
+        }
+    }
 }
@@ -0,0 +1,301 @@
+package com.video;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.metrics.FrameMetrics;
+
+/**
+ * {@link FrameSource} backed by a seeking {@link VideoCapture} and a bounded LRU cache of decoded frames.
+ * Memory stays at {@code cacheSize} frames no matter how long the video is. A source created without frame
+ * positions is filled by a producer through {@link #append} and {@link #finish} while it is already in use.
+ * A source opened on a {@link FrameCacheFile} reads its frames from the cache and never touches the video.
+ * With {@link #useProxies} the frames are kept downscaled and only single full resolution frames are decoded,
+ * by a capture of their own.
+ */
+public class VideoFrameSource implements FrameSource {
+	private static final Logger logger = LoggerFactory.getLogger(VideoFrameSource.class);
+
+	public static final int DEFAULT_CACHE_SIZE = 16;
+
+	private final VideoCapture capture;
+	private final FrameCacheFile diskCache;
+	private final ThumbnailCache thumbnails;
+	private final Object decodeLock = new Object();
+	private long[] framePositions;
+	private volatile int size;
+	private volatile boolean complete;
+	private volatile boolean closed;
+	private double progress;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final Map<Integer, BufferedImage> cache;
+	private final CaptureCursor cursor;
+	private Mat frame;
+	// Proxy mode: longer edge of the kept frames, 0 for full resolution
+	private int proxyEdge;
+	private String videoPath;
+	private Dimension originalSize;
+	private final Object fullResolutionLock = new Object();
+	private VideoCapture fullResolution;
+	private CaptureCursor fullResolutionCursor;
+	private Mat fullResolutionFrame;
+
+	public VideoFrameSource(VideoCapture capture, long[] framePositions) {
+		this(capture, framePositions, DEFAULT_CACHE_SIZE);
+	}
+
+	public VideoFrameSource(VideoCapture capture, long[] framePositions, int cacheSize) {
+		this(capture, cacheSize);
+		this.framePositions = framePositions;
+		this.size = framePositions.length;
+		this.complete = true;
+		this.progress = 1.0;
+		logger.info("Opened frame source with " + framePositions.length + " sampled frames.");
+	}
+
+	// Empty source, filled by a producer
+	public VideoFrameSource(VideoCapture capture, int cacheSize) {
+		this(capture, null, new ThumbnailCache(), cacheSize);
+	}
+
+	public VideoFrameSource(FrameCacheFile diskCache, int cacheSize) {
+		this(diskCache, new ThumbnailCache(), cacheSize);
+	}
+
+	public VideoFrameSource(FrameCacheFile diskCache, ThumbnailCache thumbnails, int cacheSize) {
+		this(null, diskCache, thumbnails, cacheSize);
+		this.framePositions = diskCache.getFramePositions();
+		this.size = framePositions.length;
+		this.complete = true;
+		this.progress = 1.0;
+	}
+
+	private VideoFrameSource(VideoCapture capture, FrameCacheFile diskCache, ThumbnailCache thumbnails,
+			int cacheSize) {
+		this.capture = capture;
+		this.diskCache = diskCache;
+		this.thumbnails = thumbnails;
+		this.cursor = capture != null ? new CaptureCursor(capture) : null;
+		this.framePositions = new long[64];
+		this.cache = new LinkedHashMap<>(cacheSize * 2, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		FrameMetrics.framesInMemory("source", this, VideoFrameSource::framesInMemory);
+	}
+
+	// Call before the source is handed out; frames decoded from then on are at most maxEdge on their longer side
+	public void useProxies(String videoPath, int maxEdge) {
+		VideoCapture video = capture != null ? capture : new VideoCapture(videoPath);
+		int width = (int) video.get(Videoio.CAP_PROP_FRAME_WIDTH);
+		int height = (int) video.get(Videoio.CAP_PROP_FRAME_HEIGHT);
+		if (video != capture) {
+			video.release();
+		}
+		if (width <= 0 || height <= 0) {
+			logger.warn("Video does not report its frame size, keeping full resolution frames: " + videoPath);
+			return;
+		}
+		this.proxyEdge = maxEdge;
+		this.videoPath = videoPath;
+		this.originalSize = new Dimension(width, height);
+		logger.info("Keeping " + width + "x" + height + " frames as proxies of at most " + maxEdge + " pixels.");
+	}
+
+	private int framesInMemory() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isComplete() {
+		return complete;
+	}
+
+	@Override
+	public void addListener(Listener listener) {
+		synchronized (listeners) {
+			listeners.add(listener);
+			listener.framesAdded(size, progress, complete);
+		}
+	}
+
+	// Adds the next sampled frame; a frame the producer already decoded goes straight into the cache.
+	// Returns false once the source is closed, so the producer can stop.
+	public boolean append(long position, BufferedImage image, double progress) {
+		if (closed) {
+			return false;
+		}
+		synchronized (cache) {
+			if (size == framePositions.length) {
+				framePositions = Arrays.copyOf(framePositions, size * 2);
+			}
+			framePositions[size] = position;
+			if (image != null) {
+				cache.put(size, image);
+			}
+			size++;
+		}
+		notifyListeners(progress, false);
+		return true;
+	}
+
+	public void finish() {
+		if (complete) {
+			return;
+		}
+		complete = true;
+		logger.info("Frame source complete with " + size + " sampled frames.");
+		notifyListeners(1.0, true);
+	}
+
+	private void notifyListeners(double progress, boolean complete) {
+		synchronized (listeners) {
+			this.progress = progress;
+			for (Listener listener : listeners) {
+				listener.framesAdded(size, progress, complete);
+			}
+		}
+	}
+
+	// Cache hits never wait for a decode running on another thread
+	@Override
+	public BufferedImage getFrame(int index) {
+		BufferedImage image = getCached(index);
+		if (image != null) {
+			FrameMetrics.FRAME_CACHE.hit();
+			return image;
+		}
+		FrameMetrics.FRAME_CACHE.miss();
+		if (diskCache != null) {
+			// Reads from the mapped cache are independent of each other, e.g. on the export threads
+			image = closed ? null : diskCache.read(index);
+			if (image != null) {
+				synchronized (cache) {
+					cache.put(index, image);
+				}
+			}
+			return image;
+		}
+		synchronized (decodeLock) {
+			image = getCached(index);
+			if (image == null) {
+				image = decode(positionOf(index));
+				if (image != null) {
+					synchronized (cache) {
+						cache.put(index, image);
+					}
+				}
+			}
+		}
+		return image;
+	}
+
+	private BufferedImage getCached(int index) {
+		synchronized (cache) {
+			return cache.get(index);
+		}
+	}
+
+	private long positionOf(int index) {
+		synchronized (cache) {
+			if (index >= size) {
+				throw new IndexOutOfBoundsException("Frame " + index + " of " + size);
+			}
+			return framePositions[index];
+		}
+	}
+
+	private BufferedImage decode(long position) {
+		if (frame == null) {
+			frame = new Mat();
+		}
+		if (!cursor.read(position, frame)) {
+			logger.error("Could not decode frame at position " + position);
+			return null;
+		}
+		return MatConverter.toBufferedImage(MatConverter.proxy(frame, proxyEdge));
+	}
+
+	@Override
+	public Dimension getOriginalSize() {
+		return originalSize == null ? null : new Dimension(originalSize);
+	}
+
+	// Browsing keeps its decoder position; edits made to the proxy are not in the returned frame
+	@Override
+	public BufferedImage getFullResolutionFrame(int index) {
+		if (originalSize == null) {
+			return getFrame(index);
+		}
+		long position = positionOf(index);
+		synchronized (fullResolutionLock) {
+			if (closed) {
+				return null;
+			}
+			if (fullResolution == null) {
+				fullResolution = new VideoCapture(videoPath);
+				fullResolutionCursor = new CaptureCursor(fullResolution);
+				fullResolutionFrame = new Mat();
+			}
+			if (!fullResolutionCursor.read(position, fullResolutionFrame)) {
+				logger.error("Could not decode frame at position " + position + " at full resolution");
+				return null;
+			}
+			return MatConverter.toBufferedImage(fullResolutionFrame);
+		}
+	}
+
+	@Override
+	public ThumbnailCache getThumbnails() {
+		return thumbnails;
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		synchronized (decodeLock) {
+			synchronized (cache) {
+				cache.clear();
+			}
+			if (frame != null) {
+				frame.release();
+			}
+			if (capture != null) {
+				capture.release();
+			}
+			if (diskCache != null) {
+				diskCache.close();
+			}
+		}
+		synchronized (fullResolutionLock) {
+			if (fullResolution != null) {
+				fullResolutionFrame.release();
+				fullResolution.release();
+			}
+		}
+	}
+}
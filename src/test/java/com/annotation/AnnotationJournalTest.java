@@ -0,0 +1,117 @@
+package com.annotation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.annotation.AnnotationStore.Category;
+import com.annotation.AnnotationStore.Confidence;
+import com.annotation.AnnotationStore.Quality;
+
+class AnnotationJournalTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void reopeningRestoresEveryChange() throws IOException {
+		File file = directory.resolve("video.mp4.journal").toFile();
+		AnnotationStore store = new AnnotationStore();
+		try (AnnotationJournal journal = AnnotationJournal.open(file, store)) {
+			for (int frame = 0; frame < 100; frame++) {
+				for (int i = 0; i < 4; i++) {
+					store.add(frame, new Rectangle(frame, i, 10, 20), Category.values()[i], Confidence.MEDIUM,
+							Quality.BLUR, "az" + i, "10", "front", "1.2");
+				}
+			}
+			store.undo(5);
+			store.remove(6, 1);
+			store.clear(7);
+			journal.recordMask(8, new Rectangle(1, 2, 3, 4), "PIXELATE", 6, 0x112233);
+		}
+
+		AnnotationStore restored = new AnnotationStore();
+		try (AnnotationJournal journal = AnnotationJournal.open(file, restored)) {
+			assertSameContent(store, restored);
+			List<AnnotationJournal.Mask> masks = journal.getMasks();
+			assertEquals(1, masks.size());
+			assertEquals(new Rectangle(1, 2, 3, 4), masks.get(0).region);
+			assertEquals("PIXELATE", masks.get(0).mode);
+			assertEquals(0x112233, masks.get(0).fillRgb);
+		}
+	}
+
+	@Test
+	void tornRecordAfterACrashIsDropped() throws IOException {
+		File file = directory.resolve("video.mp4.journal").toFile();
+		AnnotationStore store = new AnnotationStore();
+		try (AnnotationJournal journal = AnnotationJournal.open(file, store)) {
+			store.add(0, new Rectangle(1, 1, 5, 5), Category.CAR, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+			store.add(1, new Rectangle(2, 2, 5, 5), Category.PILE, Confidence.LOW, Quality.CLEAR, "", "", "", "");
+		}
+		// Half of a record, as left by a crash in the middle of a write
+		Files.write(file.toPath(), new byte[] { 0, 0, 0, 60, 1, 0, 0 }, StandardOpenOption.APPEND);
+
+		AnnotationStore restored = new AnnotationStore();
+		try (AnnotationJournal journal = AnnotationJournal.open(file, restored)) {
+			assertSameContent(store, restored);
+			restored.add(2, new Rectangle(3, 3, 5, 5), Category.FORK, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+		}
+		AnnotationStore again = new AnnotationStore();
+		AnnotationJournal.open(file, again).close();
+		assertEquals(3, again.totalCount());
+	}
+
+	@Test
+	void compactionKeepsTheState() throws IOException {
+		File file = directory.resolve("video.mp4.journal").toFile();
+		AnnotationStore store = new AnnotationStore();
+		try (AnnotationJournal journal = AnnotationJournal.open(file, store)) {
+			for (int i = 0; i < 500; i++) {
+				store.add(i % 10, new Rectangle(i, i, 1, 1), Category.STONE, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+				if (i % 3 == 0) {
+					store.undo(i % 10);
+				}
+			}
+			journal.recordMask(2, new Rectangle(0, 0, 8, 8), "SOLID", 10, 0);
+			journal.flush();
+			long before = file.length();
+			journal.compact();
+			assertTrue(file.length() < before);
+			store.add(3, new Rectangle(7, 7, 7, 7), Category.TRUCK, Confidence.LOW, Quality.BLUR, "", "", "", "");
+		}
+
+		AnnotationStore restored = new AnnotationStore();
+		try (AnnotationJournal journal = AnnotationJournal.open(file, restored)) {
+			assertSameContent(store, restored);
+			assertEquals(1, journal.getMasks().size());
+		}
+	}
+
+	private static void assertSameContent(AnnotationStore expected, AnnotationStore actual) {
+		assertArrayEquals(expected.annotatedFrames(), actual.annotatedFrames());
+		assertEquals(expected.totalCount(), actual.totalCount());
+		for (int frame : expected.annotatedFrames()) {
+			assertEquals(expected.count(frame), actual.count(frame));
+			for (int i = 0; i < expected.count(frame); i++) {
+				assertEquals(expected.getBox(frame, i), actual.getBox(frame, i));
+				assertEquals(expected.getCategory(frame, i), actual.getCategory(frame, i));
+				assertEquals(expected.getConfidence(frame, i), actual.getConfidence(frame, i));
+				assertEquals(expected.getQuality(frame, i), actual.getQuality(frame, i));
+				assertEquals(expected.getAzimuth(frame, i), actual.getAzimuth(frame, i));
+				assertEquals(expected.getHeight(frame, i), actual.getHeight(frame, i));
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.annotation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.annotation.AnnotationStore.Category;
+import com.annotation.AnnotationStore.Confidence;
+import com.annotation.AnnotationStore.Quality;
+
+class AnnotationStoreTest {
+
+	@Test
+	void keepsBoxesPerFrameWithAllColumns() {
+		AnnotationStore store = new AnnotationStore();
+		store.add(3, new Rectangle(1, 2, 30, 40), Category.TRUCK, Confidence.LOW, Quality.BLUR, "90", "15", "roof", "2.5");
+		store.add(7, new Rectangle(5, 6, 7, 8), Category.PEDESTRIAN, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+		store.add(3, new Rectangle(10, 20, 3, 4), Category.CAR, Confidence.MEDIUM, Quality.CLEAR, "90", "15", "roof", "2.5");
+
+		assertEquals(2, store.count(3));
+		assertEquals(1, store.count(7));
+		assertEquals(0, store.count(5));
+		assertEquals(3, store.totalCount());
+		assertArrayEquals(new int[] { 3, 7 }, store.annotatedFrames());
+
+		assertEquals(new Rectangle(1, 2, 30, 40), store.getBox(3, 0));
+		assertEquals(Category.TRUCK, store.getCategory(3, 0));
+		assertEquals(Confidence.LOW, store.getConfidence(3, 0));
+		assertEquals(Quality.BLUR, store.getQuality(3, 0));
+		assertEquals("roof", store.getPosition(3, 0));
+		assertEquals(new Rectangle(10, 20, 3, 4), store.getBox(3, 1));
+		assertEquals(Category.CAR, store.getCategory(3, 1));
+		// Repeated sensor values share one string
+		assertSame(store.getAzimuth(3, 0), store.getAzimuth(3, 1));
+	}
+
+	@Test
+	void undoRemoveAndClearKeepColumnsInStep() {
+		AnnotationStore store = new AnnotationStore();
+		for (int i = 0; i < 10; i++) {
+			store.add(0, new Rectangle(i, i, 1, 1), Category.values()[i % Category.values().length], Confidence.HIGH,
+					Quality.CLEAR, "a" + i, "", "", "");
+		}
+
+		assertTrue(store.undo(0));
+		assertEquals(9, store.count(0));
+		store.remove(0, 2);
+		assertEquals(8, store.count(0));
+		assertEquals(new Rectangle(3, 3, 1, 1), store.getBox(0, 2));
+		assertEquals(Category.values()[3], store.getCategory(0, 2));
+		assertEquals("a3", store.getAzimuth(0, 2));
+		assertEquals(new Rectangle(8, 8, 1, 1), store.getBox(0, 7));
+
+		store.clear(0);
+		assertEquals(0, store.count(0));
+		assertEquals(0, store.totalCount());
+		assertFalse(store.undo(0));
+	}
+
+	@Test
+	void queryAndHitTestMatchABruteForceScan() {
+		AnnotationStore store = new AnnotationStore();
+		Random random = new Random(7);
+		for (int i = 0; i < 500; i++) {
+			store.add(1, new Rectangle(random.nextInt(1900), random.nextInt(1060), 1 + random.nextInt(300),
+					1 + random.nextInt(200)), Category.CAR, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+		}
+		for (int q = 0; q < 200; q++) {
+			Rectangle area = new Rectangle(random.nextInt(2000) - 50, random.nextInt(1100) - 50, random.nextInt(400),
+					random.nextInt(400));
+			List<Integer> expected = new ArrayList<>();
+			int expectedHit = -1;
+			for (int i = 0; i < store.count(1); i++) {
+				Rectangle box = store.getBox(1, i);
+				if (box.x <= area.x + area.width && area.x <= box.x + box.width && box.y <= area.y + area.height
+						&& area.y <= box.y + box.height) {
+					expected.add(i);
+				}
+				if (area.x >= box.x && area.y >= box.y && area.x <= box.x + box.width && area.y <= box.y + box.height) {
+					expectedHit = i;
+				}
+			}
+			assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), store.query(1, area));
+			assertEquals(expectedHit, store.hitTest(1, area.x, area.y));
+		}
+
+		// The index follows removals
+		store.remove(1, 0);
+		assertEquals(499, store.query(1, new Rectangle(0, 0, 2500, 1500)).length);
+		assertEquals(0, store.query(2, new Rectangle(0, 0, 100, 100)).length);
+	}
+}
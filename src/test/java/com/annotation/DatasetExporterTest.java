@@ -0,0 +1,62 @@
+package com.annotation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.annotation.AnnotationStore.Category;
+import com.annotation.AnnotationStore.Confidence;
+import com.annotation.AnnotationStore.Quality;
+
+class DatasetExporterTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void writesNormalisedYoloCocoAndVoc() throws IOException {
+		AnnotationStore store = new AnnotationStore();
+		store.add(0, new Rectangle(100, 50, 200, 100), Category.TRUCK, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+		// Partly outside the 400x200 frame: clipped to 350..400 x 150..200
+		store.add(0, new Rectangle(350, 150, 100, 100), Category.CAR, Confidence.LOW, Quality.BLUR, "", "", "", "");
+		store.add(4, new Rectangle(0, 0, 40, 20), Category.PEDESTRIAN, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+		File frames = directory.resolve("frames").toFile();
+
+		DatasetExporter.Result result = new DatasetExporter(store, 400, 200, frames, "jpg")
+				.export(directory.resolve("dataset").toFile());
+
+		assertEquals(2, result.frames);
+		assertEquals(3, result.boxes);
+		Path yolo = directory.resolve("dataset/yolo");
+		assertEquals(List.of("6 0.500000 0.500000 0.500000 0.500000", "7 0.937500 0.875000 0.125000 0.250000"),
+				Files.readAllLines(yolo.resolve("labels/frame_000001.txt")));
+		assertEquals(List.of("0 0.050000 0.050000 0.100000 0.100000"),
+				Files.readAllLines(yolo.resolve("labels/frame_000005.txt")));
+		assertEquals("pedestrian", Files.readAllLines(yolo.resolve("classes.txt")).get(0));
+		assertEquals(new File(frames, "frame_000005.jpg").getAbsolutePath(),
+				Files.readAllLines(yolo.resolve("images.txt")).get(1));
+
+		String coco = Files.readString(directory.resolve("dataset/coco/annotations.json"));
+		assertTrue(coco.startsWith("{\"info\":{"));
+		assertTrue(coco.contains("{\"id\":1,\"file_name\":\"frames/frame_000001.jpg\",\"width\":400,\"height\":200}"));
+		assertTrue(coco.contains("{\"id\":2,\"image_id\":1,\"category_id\":8,\"bbox\":[350,150,50,50],\"area\":2500,\"iscrowd\":0},"
+				+ "{\"id\":3,\"image_id\":5,\"category_id\":1,\"bbox\":[0,0,40,20]"));
+		assertTrue(coco.endsWith("]}"));
+
+		String voc = Files.readString(directory.resolve("dataset/voc/Annotations/frame_000001.xml"));
+		assertTrue(voc.contains("<filename>frame_000001.jpg</filename>"));
+		assertTrue(voc.contains("<name>car</name>"));
+		assertTrue(voc.contains("<truncated>1</truncated>"));
+		assertTrue(voc.contains("<difficult>1</difficult>"));
+		assertTrue(voc.contains("<bndbox><xmin>101</xmin><ymin>51</ymin><xmax>300</xmax><ymax>150</ymax></bndbox>"));
+	}
+}
@@ -0,0 +1,97 @@
+package com.frameannotator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoWriter;
+
+import com.video.NativeLoader;
+
+class BatchExtractionRunnerTest {
+
+	@TempDir
+	File directory;
+
+	@BeforeAll
+	static void loadOpenCv() {
+		NativeLoader.ensureLoaded();
+	}
+
+	@Test
+	void aBatchOfReadableVideosSucceeds() throws Exception {
+		File input = new File(directory, "input");
+		input.mkdirs();
+		writeVideo(new File(input, "clip.avi"));
+
+		BatchExtractionRunner runner = runner(input);
+		runner.run();
+
+		assertEquals(0, runner.getExitCode());
+		String[] frames = new File(directory, "output/clip/frames").list();
+		assertTrue(frames != null && frames.length > 0);
+	}
+
+	@Test
+	void aFailedVideoFailsTheBatch() throws Exception {
+		File input = new File(directory, "input");
+		input.mkdirs();
+		writeVideo(new File(input, "clip.avi"));
+		Files.write(new File(input, "broken.mp4").toPath(), new byte[] { 1, 2, 3 });
+
+		BatchExtractionRunner runner = runner(input);
+		runner.run();
+
+		assertEquals(BatchExtractionRunner.FAILED, runner.getExitCode());
+	}
+
+	@Test
+	void noVideosFailsTheBatch() throws Exception {
+		File input = new File(directory, "empty");
+		input.mkdirs();
+
+		BatchExtractionRunner runner = runner(input);
+		runner.run();
+
+		assertEquals(BatchExtractionRunner.FAILED, runner.getExitCode());
+	}
+
+	private BatchExtractionRunner runner(File input) {
+		FrameAnnotatorProperties properties = new FrameAnnotatorProperties();
+		properties.getBatch().setEnabled(true);
+		properties.getBatch().setInput(List.of(input.getPath()));
+		properties.getBatch().setOutput(new File(directory, "output").getPath());
+		properties.getBatch().setParallelism(2);
+		return new BatchExtractionRunner(properties);
+	}
+
+	// Four seconds of MJPG, two frames at the default 30 frames per minute
+	private static void writeVideo(File file) throws IOException {
+		VideoWriter writer = new VideoWriter(file.getPath(), VideoWriter.fourcc('M', 'J', 'P', 'G'), 30.0,
+				new Size(64, 48));
+		if (!writer.isOpened()) {
+			throw new IOException("Could not write " + file);
+		}
+		Mat frame = new Mat(48, 64, CvType.CV_8UC3);
+		try {
+			for (int i = 0; i < 120; i++) {
+				frame.setTo(new Scalar(i * 2));
+				writer.write(frame);
+			}
+		} finally {
+			frame.release();
+			writer.release();
+		}
+	}
+}
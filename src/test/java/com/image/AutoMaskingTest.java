@@ -0,0 +1,88 @@
+package com.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Mat;
+
+import com.video.AutoMasker;
+import com.video.MatConverter;
+
+class AutoMaskingTest {
+
+	@Test
+	void bundledCascadeFindsAFaceAndOnlyItIsBlurred() throws IOException {
+		AutoMasker masker = new AutoMasker(List.of("haarcascade_frontalface_alt.xml"));
+		BufferedImage frame = face(400, 300);
+		Mat mat = MatConverter.toMat(frame);
+		byte[] before = new byte[(int) mat.total() * mat.channels()];
+		mat.get(0, 0, before);
+
+		List<Rectangle> regions = masker.mask(mat);
+
+		assertEquals(1, regions.size());
+		Rectangle region = regions.get(0);
+		assertTrue(region.contains(200, 150), "Region: " + region);
+		byte[] after = new byte[before.length];
+		mat.get(0, 0, after);
+		mat.release();
+		boolean changedInside = false;
+		for (int y = 0; y < frame.getHeight(); y++) {
+			for (int x = 0; x < frame.getWidth(); x++) {
+				for (int c = 0; c < 3; c++) {
+					int i = (y * frame.getWidth() + x) * 3 + c;
+					if (region.contains(x, y)) {
+						changedInside |= before[i] != after[i];
+					} else {
+						assertEquals(before[i], after[i], "Pixel " + x + "," + y);
+					}
+				}
+			}
+		}
+		assertTrue(changedInside);
+	}
+
+	@Test
+	void framesWithoutFacesAreLeftAlone() throws IOException {
+		AutoMasker masker = new AutoMasker(List.of("haarcascade_frontalface_alt.xml"));
+		BufferedImage frame = new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = frame.createGraphics();
+		g.setColor(Color.DARK_GRAY);
+		g.fillRect(0, 0, 320, 240);
+		g.dispose();
+		assertTrue(masker.detect(frame).isEmpty());
+	}
+
+	// A drawn face: skin oval with brows, eyes, nose and mouth on a dark background, centred in the frame
+	private static BufferedImage face(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(new Color(60, 60, 60));
+		g.fillRect(0, 0, width, height);
+		int cx = width / 2;
+		int cy = height / 2;
+		g.setColor(new Color(210, 180, 150));
+		g.fillOval(cx - 60, cy - 80, 120, 160);
+		g.setColor(new Color(40, 30, 20));
+		g.fillRect(cx - 45, cy - 40, 32, 7);
+		g.fillRect(cx + 13, cy - 40, 32, 7);
+		g.fillOval(cx - 40, cy - 25, 24, 14);
+		g.fillOval(cx + 16, cy - 25, 24, 14);
+		g.setColor(new Color(170, 130, 110));
+		g.fillRect(cx - 6, cy - 10, 12, 35);
+		g.setColor(new Color(120, 50, 50));
+		g.fillOval(cx - 25, cy + 35, 50, 14);
+		g.dispose();
+		return image;
+	}
+}
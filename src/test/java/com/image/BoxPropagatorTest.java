@@ -0,0 +1,118 @@
+package com.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.annotation.AnnotationStore;
+import com.annotation.AnnotationStore.Category;
+import com.annotation.AnnotationStore.Confidence;
+import com.annotation.AnnotationStore.Quality;
+import com.video.FrameSource;
+import com.video.NativeLoader;
+
+class BoxPropagatorTest {
+
+	private static final int WIDTH = 320;
+	private static final int HEIGHT = 240;
+
+	@BeforeAll
+	static void loadOpenCv() {
+		NativeLoader.ensureLoaded();
+	}
+
+	@Test
+	void boxesFollowThePatchUntilItLeavesTheFrame() throws InterruptedException {
+		// The patch moves right by 8 pixels a frame and is out of the frame from frame 3 on; at frame 5 it is
+		// back where the box started, but the lost track does not pick it up again
+		BufferedImage[] frames = { patch(200, 90), patch(208, 90), patch(216, 90), patch(330, 90), patch(330, 90),
+				patch(200, 90) };
+		AnnotationStore store = new AnnotationStore();
+		store.add(0, new Rectangle(200, 90, 60, 60), Category.TRUCK, Confidence.HIGH, Quality.CLEAR, "north", "", "",
+				"");
+		BoxPropagator propagator = new BoxPropagator(source(frames), store, BoxPropagator.DEFAULT_DISTANCE,
+				frame -> {
+				});
+
+		propagator.propagate(0);
+		assertTrue(propagator.finish(30, TimeUnit.SECONDS));
+
+		List<BoxPropagator.Suggestion> next = propagator.getSuggestions(1);
+		assertEquals(1, next.size());
+		Rectangle box = next.get(0).box;
+		assertEquals(208, box.x, 1);
+		assertEquals(90, box.y, 1);
+		assertEquals(Category.TRUCK, next.get(0).category);
+		assertEquals("north", next.get(0).azimuth);
+		assertTrue(next.get(0).confidence >= BoxPropagator.MIN_CONFIDENCE);
+		assertEquals(1, propagator.getSuggestions(2).size());
+		assertEquals(216, propagator.getSuggestions(2).get(0).box.x, 2);
+		for (int frame = 3; frame < frames.length; frame++) {
+			assertTrue(propagator.getSuggestions(frame).isEmpty(), "Suggestions on frame " + frame);
+		}
+	}
+
+	@Test
+	void acceptedSuggestionsSkipBoxesTheFrameAlreadyHas() throws InterruptedException {
+		BufferedImage[] frames = { patch(100, 90), patch(106, 92) };
+		AnnotationStore store = new AnnotationStore();
+		store.add(0, new Rectangle(100, 90, 60, 60), Category.CAR, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+		store.add(1, new Rectangle(104, 91, 60, 60), Category.CAR, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+		BoxPropagator propagator = new BoxPropagator(source(frames), store, BoxPropagator.DEFAULT_DISTANCE,
+				frame -> {
+				});
+
+		propagator.propagate(0);
+		assertTrue(propagator.finish(30, TimeUnit.SECONDS));
+
+		assertEquals(1, propagator.getSuggestions(1).size());
+		assertEquals(0, propagator.accept(1));
+		assertEquals(1, store.count(1));
+	}
+
+	private static FrameSource source(BufferedImage[] frames) {
+		return new FrameSource() {
+			@Override
+			public int size() {
+				return frames.length;
+			}
+
+			@Override
+			public BufferedImage getFrame(int index) {
+				return frames[index];
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	// A 60x60 patch of random 4x4 blocks, the same in every frame, on a plain background
+	private static BufferedImage patch(int x, int y) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.GRAY);
+		g.fillRect(0, 0, WIDTH, HEIGHT);
+		Random random = new Random(42);
+		for (int by = 0; by < 60; by += 4) {
+			for (int bx = 0; bx < 60; bx += 4) {
+				int v = random.nextInt(256);
+				g.setColor(new Color(v, v, v));
+				g.fillRect(x + bx, y + by, 4, 4);
+			}
+		}
+		g.dispose();
+		return image;
+	}
+}
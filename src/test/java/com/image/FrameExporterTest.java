@@ -0,0 +1,100 @@
+package com.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.annotation.AnnotationStore;
+import com.annotation.AnnotationStore.Category;
+import com.annotation.AnnotationStore.Confidence;
+import com.annotation.AnnotationStore.Quality;
+
+class FrameExporterTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void overlaysKeepTheFramesClean() throws IOException, InterruptedException {
+		AnnotationStore store = new AnnotationStore();
+		store.add(1, new Rectangle(10, 10, 40, 30), Category.TRUCK, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+		BufferedImage frame = gray(120, 80);
+
+		FrameExporter.Result result = new FrameExporter(index -> frame, store,
+				new ImageEncoder(ImageEncoder.Format.PNG, 1f), true).export(new int[] { 1, 3 }, directory.toFile());
+
+		assertEquals(2, result.frames);
+		assertEquals(0, result.failed);
+		BufferedImage clean = ImageIO.read(directory.resolve("frames/frame_000002.png").toFile());
+		assertEquals(frame.getRGB(10, 10), clean.getRGB(10, 10));
+		BufferedImage overlay = ImageIO.read(directory.resolve("overlays/frame_000002.png").toFile());
+		assertEquals(Category.TRUCK.getColor().getRGB(), overlay.getRGB(10, 20));
+		assertEquals(0, overlay.getRGB(30, 25) >>> 24);
+		assertTrue(Files.exists(directory.resolve("overlays/frame_000004.png")));
+	}
+
+	@Test
+	void rawFramesAreBgrBytesWithALayoutFile() throws IOException, InterruptedException {
+		BufferedImage frame = gray(16, 8);
+
+		new FrameExporter(index -> index == 0 ? frame : null, new AnnotationStore(),
+				new ImageEncoder(ImageEncoder.Format.RAW, 1f), false).export(new int[] { 0, 5 }, directory.toFile());
+
+		assertEquals(16 * 8 * 3, Files.size(directory.resolve("annotated/frame_000001.raw")));
+		assertTrue(Files.readAllLines(directory.resolve("annotated/raw.txt")).contains("width=16"));
+		assertTrue(Files.notExists(directory.resolve("annotated/frame_000006.raw")));
+	}
+
+	@Test
+	void everyImageTheDatasetNamesIsWritten() throws IOException, InterruptedException {
+		AnnotationStore store = new AnnotationStore();
+		store.add(0, new Rectangle(10, 10, 40, 30), Category.TRUCK, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+		store.add(4, new Rectangle(5, 5, 20, 20), Category.CAR, Confidence.HIGH, Quality.CLEAR, "", "", "", "");
+		BufferedImage frame = gray(120, 80);
+		Path dataset = directory.resolve("dataset");
+
+		FrameExporter.exportDataset(index -> frame, store, 120, 80, dataset.toFile());
+
+		List<String> images = Files.readAllLines(dataset.resolve("yolo/images.txt"));
+		assertEquals(2, images.size());
+		for (String image : images) {
+			assertTrue(Files.exists(Path.of(image)), image);
+		}
+		Matcher fileNames = Pattern.compile("\"file_name\":\"([^\"]+)\"")
+				.matcher(Files.readString(dataset.resolve("coco/annotations.json")));
+		int referenced = 0;
+		while (fileNames.find()) {
+			assertTrue(Files.exists(dataset.resolve(fileNames.group(1))), fileNames.group(1));
+			referenced++;
+		}
+		assertEquals(2, referenced);
+		Matcher path = Pattern.compile("<path>([^<]+)</path>")
+				.matcher(Files.readString(dataset.resolve("voc/Annotations/frame_000005.xml")));
+		assertTrue(path.find());
+		assertTrue(Files.exists(Path.of(path.group(1))), path.group(1));
+	}
+
+	private static BufferedImage gray(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.GRAY);
+		g.fillRect(0, 0, width, height);
+		g.dispose();
+		return image;
+	}
+}
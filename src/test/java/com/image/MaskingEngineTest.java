@@ -0,0 +1,122 @@
+package com.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class MaskingEngineTest {
+
+	@Test
+	void blurMatchesWindowAverageAndLeavesOtherPixels() {
+		BufferedImage image = randomImage(BufferedImage.TYPE_3BYTE_BGR, 300, 200);
+		BufferedImage original = copy(image);
+		Rectangle region = new Rectangle(-5, 20, 250, 150);
+
+		new MaskingEngine(MaskingEngine.MaskMode.BLUR).apply(image, region);
+
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				if (region.contains(x, y)) {
+					assertClose(windowAverage(original, x, y, MaskingEngine.DEFAULT_STRENGTH), image.getRGB(x, y));
+				} else {
+					assertEquals(original.getRGB(x, y), image.getRGB(x, y));
+				}
+			}
+		}
+	}
+
+	@Test
+	void intAndByteRastersGiveTheSameResult() {
+		BufferedImage bytes = randomImage(BufferedImage.TYPE_3BYTE_BGR, 120, 90);
+		BufferedImage ints = new BufferedImage(120, 90, BufferedImage.TYPE_INT_RGB);
+		ints.getGraphics().drawImage(bytes, 0, 0, null);
+		Rectangle region = new Rectangle(10, 10, 80, 60);
+
+		for (MaskingEngine.MaskMode mode : MaskingEngine.MaskMode.values()) {
+			BufferedImage byteCopy = copy(bytes);
+			BufferedImage intCopy = copy(ints);
+			new MaskingEngine(mode).apply(byteCopy, region);
+			new MaskingEngine(mode).apply(intCopy, region);
+			for (int y = 0; y < 90; y++) {
+				for (int x = 0; x < 120; x++) {
+					assertEquals(byteCopy.getRGB(x, y), intCopy.getRGB(x, y), mode + " at " + x + "," + y);
+				}
+			}
+		}
+	}
+
+	@Test
+	void pixelateFillsBlocksWithTheirAverage() {
+		BufferedImage image = randomImage(BufferedImage.TYPE_3BYTE_BGR, 64, 64);
+		BufferedImage original = copy(image);
+
+		new MaskingEngine(MaskingEngine.MaskMode.PIXELATE, 4, Color.BLACK).apply(image, new Rectangle(8, 8, 16, 16));
+
+		long red = 0;
+		for (int y = 8; y < 16; y++) {
+			for (int x = 8; x < 16; x++) {
+				red += (original.getRGB(x, y) >> 16) & 0xFF;
+				assertEquals(image.getRGB(8, 8), image.getRGB(x, y));
+			}
+		}
+		assertEquals(red / 64, (image.getRGB(8, 8) >> 16) & 0xFF);
+	}
+
+	@Test
+	void solidFillPaintsTheClippedRegion() {
+		BufferedImage image = randomImage(BufferedImage.TYPE_INT_RGB, 50, 50);
+		BufferedImage original = copy(image);
+
+		new MaskingEngine(MaskingEngine.MaskMode.SOLID, 1, Color.BLACK).apply(image, new Rectangle(40, 40, 30, 30));
+
+		assertEquals(Color.BLACK.getRGB(), image.getRGB(49, 49));
+		assertEquals(Color.BLACK.getRGB(), image.getRGB(40, 40));
+		assertEquals(original.getRGB(39, 39), image.getRGB(39, 39));
+	}
+
+	private static int windowAverage(BufferedImage image, int x, int y, int radius) {
+		int r = 0, g = 0, b = 0, count = 0;
+		for (int ny = Math.max(0, y - radius); ny <= Math.min(image.getHeight() - 1, y + radius); ny++) {
+			for (int nx = Math.max(0, x - radius); nx <= Math.min(image.getWidth() - 1, x + radius); nx++) {
+				int rgb = image.getRGB(nx, ny);
+				r += (rgb >> 16) & 0xFF;
+				g += (rgb >> 8) & 0xFF;
+				b += rgb & 0xFF;
+				count++;
+			}
+		}
+		return 0xFF000000 | (r / count) << 16 | (g / count) << 8 | b / count;
+	}
+
+	// The two passes each round down, so a channel may be one below the exact window average
+	private static void assertClose(int expected, int actual) {
+		for (int shift = 0; shift <= 16; shift += 8) {
+			int difference = ((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF);
+			assertTrue(difference >= 0 && difference <= 1, "expected " + Integer.toHexString(expected) + " got "
+					+ Integer.toHexString(actual));
+		}
+	}
+
+	private static BufferedImage randomImage(int type, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Random random = new Random(42);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setRGB(x, y, random.nextInt(0x1000000));
+			}
+		}
+		return image;
+	}
+
+	private static BufferedImage copy(BufferedImage image) {
+		BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+		copy.setData(image.getData());
+		return copy;
+	}
+}
@@ -0,0 +1,92 @@
+package com.image;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+
+import org.junit.jupiter.api.Test;
+
+class RenderCacheTest {
+
+	@Test
+	void zoomIsDrawnFromTheSmallestLevelThatIsStillLargeEnough() {
+		BufferedImage frame = new BufferedImage(3840, 2160, BufferedImage.TYPE_3BYTE_BGR);
+		assertEquals(0, RenderCache.levelFor(frame, 4.0));
+		assertEquals(0, RenderCache.levelFor(frame, 0.6));
+		assertEquals(1, RenderCache.levelFor(frame, 0.5));
+		assertEquals(1, RenderCache.levelFor(frame, 0.3));
+		assertEquals(2, RenderCache.levelFor(frame, 0.25));
+	}
+
+	@Test
+	void deepZoomOnlyScalesTheTilesInTheViewport() {
+		BufferedImage frame = new BufferedImage(4000, 3000, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = frame.createGraphics();
+		g.setColor(Color.RED);
+		g.fillRect(0, 0, 2000, 3000);
+		g.setColor(Color.BLUE);
+		g.fillRect(2000, 0, 2000, 3000);
+		g.dispose();
+
+		// A 300x300 viewport into the frame zoomed to 16000x12000
+		BufferedImage viewport = new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB);
+		Graphics2D canvas = viewport.createGraphics();
+		canvas.translate(-7900, -1000);
+		canvas.setClip(7900, 1000, 300, 300);
+		RenderCache renderCache = new RenderCache();
+		renderCache.paint(canvas, frame, 4.0);
+		canvas.dispose();
+
+		assertEquals(Color.RED.getRGB(), viewport.getRGB(0, 150));
+		assertEquals(Color.BLUE.getRGB(), viewport.getRGB(299, 150));
+		// 3 by 3 tiles instead of a 16000x12000 copy
+		assertTrue(renderCache.getUsedBytes() <= 9L * RenderCache.TILE_SIZE * RenderCache.TILE_SIZE * 4,
+				"Bytes: " + renderCache.getUsedBytes());
+	}
+
+	@Test
+	void tilesDoNotKeepTheirFrameAlive() throws InterruptedException {
+		RenderCache renderCache = new RenderCache();
+		BufferedImage frame = new BufferedImage(1920, 1080, BufferedImage.TYPE_3BYTE_BGR);
+		renderCache.prepare(frame, 0.3, null);
+		assertEquals(1, renderCache.size());
+		assertTrue(renderCache.getUsedBytes() > 0);
+
+		WeakReference<BufferedImage> collected = new WeakReference<>(frame);
+		frame = null;
+		for (int i = 0; i < 50 && collected.get() != null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+
+		assertNull(collected.get());
+		assertEquals(0, renderCache.size());
+		assertEquals(0, renderCache.getUsedBytes());
+	}
+
+	@Test
+	void invalidatedFramesAreRenderedAgain() {
+		RenderCache renderCache = new RenderCache();
+		BufferedImage frame = new BufferedImage(512, 512, BufferedImage.TYPE_3BYTE_BGR);
+		renderCache.prepare(frame, 1.0, null);
+		assertTrue(renderCache.getUsedBytes() > 0);
+
+		Graphics2D g = frame.createGraphics();
+		g.setColor(Color.GREEN);
+		g.fillRect(0, 0, 512, 512);
+		g.dispose();
+		renderCache.invalidate(frame);
+		assertEquals(0, renderCache.getUsedBytes());
+
+		BufferedImage canvas = new BufferedImage(512, 512, BufferedImage.TYPE_INT_RGB);
+		Graphics2D canvasGraphics = canvas.createGraphics();
+		renderCache.paint(canvasGraphics, frame, 1.0);
+		canvasGraphics.dispose();
+		assertEquals(Color.GREEN.getRGB(), canvas.getRGB(300, 300));
+	}
+}
@@ -0,0 +1,24 @@
+package com.video;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Rectangle;
+
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Rect;
+
+class AutoMaskerTest {
+
+	@Test
+	void detectionsArePaddedAndMappedBackOntoTheFrame() {
+		assertEquals(new Rectangle(188, 88, 104, 104), AutoMasker.region(new Rect(100, 50, 40, 40), 0.5, 1920, 1080));
+		// Padding stops at the frame border
+		assertEquals(new Rectangle(0, 0, 23, 23), AutoMasker.region(new Rect(0, 0, 20, 20), 1.0, 1920, 1080));
+	}
+
+	@Test
+	void largerRegionsGetAStrongerBlur() {
+		assertEquals(10, AutoMasker.blurRadius(new Rectangle(0, 0, 30, 30)));
+		assertEquals(50, AutoMasker.blurRadius(new Rectangle(0, 0, 400, 200)));
+	}
+}
@@ -0,0 +1,95 @@
+package com.video;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.Point;
+
+class BoxTrackerTest {
+
+	private static final Point[] CORNERS = { new Point(10, 10), new Point(30, 10), new Point(10, 30),
+			new Point(30, 30), new Point(20, 20) };
+
+	@BeforeAll
+	static void loadOpenCv() {
+		NativeLoader.ensureLoaded();
+	}
+
+	@Test
+	void boxFollowsATexturedPatchToTheNextFrame() {
+		BoxTracker tracker = new BoxTracker();
+		tracker.start(frameWithPatch(320, 240, 100, 80), 1.0, new Rectangle[] { new Rectangle(100, 80, 60, 60) });
+
+		BoxTracker.Track[] tracks = tracker.next(frameWithPatch(320, 240, 107, 84));
+
+		Rectangle box = tracks[0].box;
+		assertNotNull(box);
+		assertEquals(107, box.x, 1);
+		assertEquals(84, box.y, 1);
+		assertEquals(60, box.width, 2);
+		assertEquals(60, box.height, 2);
+		assertTrue(tracks[0].confidence > 0.5, "Confidence: " + tracks[0].confidence);
+		tracker.release();
+	}
+
+	@Test
+	void boxIsLostWhenItsTextureDisappears() {
+		BoxTracker tracker = new BoxTracker();
+		tracker.start(frameWithPatch(320, 240, 100, 80), 1.0, new Rectangle[] { new Rectangle(100, 80, 60, 60) });
+
+		BoxTracker.Track[] tracks = tracker.next(new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR));
+
+		assertNull(tracks[0].box);
+		assertTrue(tracker.isLost());
+		tracker.release();
+	}
+
+	@Test
+	void boxMovesWithTheMedianShiftOfItsPoints() {
+		// One point slid off onto the background
+		Point[] after = { new Point(15, 12), new Point(35, 12), new Point(15, 32), new Point(35, 32),
+				new Point(80, 90) };
+		Rectangle2D.Double moved = BoxTracker.moveBox(new Rectangle2D.Double(0, 0, 40, 40), CORNERS, after);
+		assertEquals(25, moved.getCenterX(), 1e-9);
+		assertEquals(22, moved.getCenterY(), 1e-9);
+	}
+
+	@Test
+	void boxGrowsWithTheSpreadOfItsPoints() {
+		Point[] after = { new Point(5, 5), new Point(35, 5), new Point(5, 35), new Point(35, 35), new Point(20, 20) };
+		Rectangle2D.Double moved = BoxTracker.moveBox(new Rectangle2D.Double(0, 0, 40, 40), CORNERS, after);
+		assertEquals(60, moved.width, 1e-9);
+		assertEquals(60, moved.height, 1e-9);
+		assertEquals(20, moved.getCenterX(), 1e-9);
+		assertEquals(20, moved.getCenterY(), 1e-9);
+	}
+
+	// A 60x60 patch of random 4x4 blocks, the same in every frame, on a plain background
+	private static BufferedImage frameWithPatch(int width, int height, int x, int y) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.GRAY);
+		g.fillRect(0, 0, width, height);
+		Random random = new Random(42);
+		for (int by = 0; by < 60; by += 4) {
+			for (int bx = 0; bx < 60; bx += 4) {
+				int v = random.nextInt(256);
+				g.setColor(new Color(v, v, v));
+				g.fillRect(x + bx, y + by, 4, 4);
+			}
+		}
+		g.dispose();
+		return image;
+	}
+}
@@ -0,0 +1,166 @@
+package com.video;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+class FrameCacheFileTest {
+
+	private static final String SAMPLER = "30 frames per minute";
+	private static final int WIDTH = 4;
+	private static final int HEIGHT = 3;
+	private static final long[] POSITIONS = { 0, 60, 120, 180, 240 };
+
+	@TempDir
+	File directory;
+	private File video;
+	private File cache;
+
+	@BeforeAll
+	static void loadOpenCv() {
+		NativeLoader.ensureLoaded();
+	}
+
+	@BeforeEach
+	void createVideo() throws IOException {
+		video = new File(directory, "clip.mp4");
+		Files.write(video.toPath(), new byte[] { 1, 2, 3, 4 });
+		cache = new File(directory, "clip/clip.mp4.frames");
+	}
+
+	@Test
+	void framesComeBackAfterReopening() {
+		writeCache(POSITIONS.length);
+
+		try (FrameCacheFile reopened = FrameCacheFile.open(cache, video, SAMPLER)) {
+			assertNotNull(reopened);
+			assertEquals(POSITIONS.length, reopened.size());
+			assertArrayEquals(POSITIONS, reopened.getFramePositions());
+			for (int i = 0; i < POSITIONS.length; i++) {
+				assertFrame(i, reopened.read(i));
+			}
+		}
+	}
+
+	@Test
+	void longCachesAreMappedInChunksOfWholeFrames() {
+		writeCache(POSITIONS.length);
+		long stride = WIDTH * HEIGHT * 3;
+
+		// Two frames per mapping, so the five frames need three
+		try (FrameCacheFile reopened = FrameCacheFile.open(cache, video, SAMPLER, 2 * stride + 1)) {
+			assertNotNull(reopened);
+			for (int i = POSITIONS.length - 1; i >= 0; i--) {
+				assertFrame(i, reopened.read(i));
+			}
+		}
+	}
+
+	@Test
+	void aChangedVideoInvalidatesTheCache() throws IOException {
+		writeCache(POSITIONS.length);
+		long modified = video.lastModified();
+
+		assertTrue(video.setLastModified(modified - 60_000));
+		assertNull(FrameCacheFile.open(cache, video, SAMPLER));
+
+		assertTrue(video.setLastModified(modified));
+		try (RandomAccessFile file = new RandomAccessFile(video, "rw")) {
+			file.setLength(file.length() + 1);
+		}
+		assertTrue(video.setLastModified(modified));
+		assertNull(FrameCacheFile.open(cache, video, SAMPLER));
+	}
+
+	@Test
+	void anotherSamplerInvalidatesTheCache() {
+		writeCache(POSITIONS.length);
+
+		assertNull(FrameCacheFile.open(cache, video, "every 2.0 s"));
+		try (FrameCacheFile reopened = FrameCacheFile.open(cache, video, SAMPLER)) {
+			assertNotNull(reopened);
+		}
+	}
+
+	@Test
+	void aTruncatedCacheIsRejected() throws IOException {
+		writeCache(POSITIONS.length);
+		try (RandomAccessFile file = new RandomAccessFile(cache, "rw")) {
+			file.setLength(file.length() - 8);
+		}
+
+		assertNull(FrameCacheFile.open(cache, video, SAMPLER));
+	}
+
+	@Test
+	void aCacheIsOnlyWrittenWhenEveryFrameHasItsPosition() {
+		writeCache(POSITIONS.length - 1);
+
+		assertFalse(cache.exists());
+		assertFalse(new File(cache.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	void aFrameOfAnotherSizeGivesUpTheCache() {
+		FrameCacheFile.Writer writer = FrameCacheFile.Writer.create(cache, video, SAMPLER);
+		Mat first = frame(0);
+		Mat larger = new Mat(HEIGHT + 1, WIDTH, CvType.CV_8UC3, new Scalar(0));
+		try {
+			assertTrue(writer.write(first));
+			assertFalse(writer.write(larger));
+			writer.finish(new long[] { 0, 60 });
+		} finally {
+			first.release();
+			larger.release();
+		}
+
+		assertFalse(cache.exists());
+	}
+
+	// Writes the given number of frames but always finishes with all five positions
+	private void writeCache(int frames) {
+		FrameCacheFile.Writer writer = FrameCacheFile.Writer.create(cache, video, SAMPLER);
+		assertNotNull(writer);
+		for (int i = 0; i < frames; i++) {
+			Mat frame = frame(i);
+			assertTrue(writer.write(frame));
+			frame.release();
+		}
+		writer.finish(POSITIONS);
+	}
+
+	// Every frame has its own colour
+	private static Mat frame(int index) {
+		return new Mat(HEIGHT, WIDTH, CvType.CV_8UC3, new Scalar(index * 10, index * 20 + 1, index * 30 + 2));
+	}
+
+	private static void assertFrame(int index, BufferedImage image) {
+		assertEquals(BufferedImage.TYPE_3BYTE_BGR, image.getType());
+		assertEquals(WIDTH, image.getWidth());
+		assertEquals(HEIGHT, image.getHeight());
+		byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		for (int pixel = 0; pixel < WIDTH * HEIGHT; pixel++) {
+			assertEquals(index * 10, data[pixel * 3] & 0xFF, "Frame " + index);
+			assertEquals(index * 20 + 1, data[pixel * 3 + 1] & 0xFF, "Frame " + index);
+			assertEquals(index * 30 + 2, data[pixel * 3 + 2] & 0xFF, "Frame " + index);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.video;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class FrameDeduplicatorTest {
+
+	@Test
+	void hashSetsABitWhereAPixelIsBrighterThanItsRightNeighbour() {
+		byte[] falling = new byte[9 * 8];
+		byte[] rising = new byte[9 * 8];
+		for (int i = 0; i < falling.length; i++) {
+			falling[i] = (byte) (255 - (i % 9) * 20);
+			rising[i] = (byte) ((i % 9) * 20);
+		}
+		assertEquals(-1L, FrameDeduplicator.dHash(falling));
+		assertEquals(0L, FrameDeduplicator.dHash(rising));
+
+		// A bright pixel in the middle of the first row now exceeds its right neighbour: the 5th bit of 64
+		rising[4] = (byte) 250;
+		assertEquals(1L << 59, FrameDeduplicator.dHash(rising));
+	}
+
+	@Test
+	void dropsFramesCloseToOneOfTheLastKeptFrames() {
+		FrameDeduplicator deduplicator = new FrameDeduplicator(2, 2);
+		long a = 0x0F0F0F0F0F0F0F0FL;
+		long b = 0x00FF00FF00FF00FFL;
+		long c = 0x3333333333333333L;
+
+		assertFalse(deduplicator.isDuplicate(a));
+		assertTrue(deduplicator.isDuplicate(a ^ 0b11));
+		assertFalse(deduplicator.isDuplicate(a ^ 0b111));
+		assertFalse(deduplicator.isDuplicate(b));
+		assertFalse(deduplicator.isDuplicate(c));
+		// a has left the window of two kept frames
+		assertFalse(deduplicator.isDuplicate(a));
+		assertTrue(deduplicator.isDuplicate(c ^ 1L << 40));
+		assertEquals(2, deduplicator.getDropped());
+	}
+}
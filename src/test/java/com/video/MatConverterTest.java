@@ -0,0 +1,58 @@
+package com.video;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+class MatConverterTest {
+
+	@BeforeAll
+	static void loadOpenCv() {
+		NativeLoader.ensureLoaded();
+	}
+
+	@Test
+	void bgrFramesKeepTheirChannelOrder() {
+		Mat mat = new Mat(2, 3, CvType.CV_8UC3, new Scalar(10, 20, 30));
+		BufferedImage image = MatConverter.toBufferedImage(mat);
+		assertEquals(BufferedImage.TYPE_3BYTE_BGR, image.getType());
+		assertEquals(3, image.getWidth());
+		assertEquals(2, image.getHeight());
+		assertEquals(0x1E140A, image.getRGB(2, 1) & 0xFFFFFF);
+		mat.release();
+	}
+
+	@Test
+	void greyFramesStayGrey() {
+		Mat mat = new Mat(4, 4, CvType.CV_8UC1, new Scalar(77));
+		BufferedImage image = MatConverter.toBufferedImage(mat);
+		assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+		assertEquals(77, image.getRaster().getSample(3, 3, 0));
+		mat.release();
+	}
+
+	@Test
+	void bgraFramesLoseTheirAlphaAndReuseTheImage() {
+		Mat mat = new Mat(2, 2, CvType.CV_8UC4, new Scalar(10, 20, 30, 40));
+		BufferedImage image = MatConverter.toBufferedImage(mat);
+		assertEquals(BufferedImage.TYPE_3BYTE_BGR, image.getType());
+		assertEquals(0x1E140A, image.getRGB(1, 1) & 0xFFFFFF);
+		assertSame(image, MatConverter.toBufferedImage(mat, image));
+		mat.release();
+	}
+
+	@Test
+	void otherFrameTypesAreRejected() {
+		Mat mat = new Mat(2, 2, CvType.CV_32FC1, new Scalar(0.5));
+		assertThrows(IllegalArgumentException.class, () -> MatConverter.toBufferedImage(mat));
+		mat.release();
+	}
+}
@@ -0,0 +1,116 @@
+package com.video;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opencv.core.CvType;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoWriter;
+
+class SegmentedExtractorTest {
+
+	private static final int FRAMES = 120;
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+
+	@TempDir
+	File directory;
+
+	@BeforeAll
+	static void loadOpenCv() {
+		NativeLoader.ensureLoaded();
+	}
+
+	@Test
+	void segmentsReturnTheSameFramesAsOneSequentialPass() throws InterruptedException {
+		String video = stampedVideo();
+		// Every second frame: 60 sampled frames, split into segments of 15
+		FrameSampler sampler = FrameSampler.framesPerMinute(900);
+
+		Map<Integer, Long> sequential = new ConcurrentHashMap<>();
+		Map<Integer, Long> segmented = new ConcurrentHashMap<>();
+		SegmentedExtractor extractor = new SegmentedExtractor(video, sampler);
+		assertEquals(60, extractor.size());
+		assertEquals(60, extractor.run(1, (index, position, timestampMs, frame) -> {
+			assertEquals(position, stamp(frame), "Frame at position " + position);
+			return sequential.put(index, position) == null;
+		}));
+		assertEquals(60, extractor.run(4, (index, position, timestampMs, frame) -> {
+			assertEquals(position, stamp(frame), "Frame at position " + position);
+			return segmented.put(index, position) == null;
+		}));
+
+		assertEquals(60, sequential.size());
+		assertEquals(sequential, segmented);
+		for (int index = 0; index < 60; index++) {
+			assertEquals(index * 2L, segmented.get(index));
+		}
+	}
+
+	@Test
+	void aFailedSegmentStopsTheOthers() throws InterruptedException {
+		SegmentedExtractor extractor = new SegmentedExtractor(stampedVideo(), FrameSampler.framesPerMinute(900));
+		AtomicInteger handled = new AtomicInteger();
+
+		assertThrows(IllegalStateException.class, () -> extractor.run(4, (index, position, timestampMs, frame) -> {
+			if (index == 15) {
+				throw new IllegalStateException("Disk full");
+			}
+			handled.incrementAndGet();
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return true;
+		}));
+		Thread.sleep(500);
+
+		// Without stopping, the three other segments would handle all of their 45 frames
+		assertTrue(handled.get() < 20, "Frames handled: " + handled.get());
+	}
+
+	// Each frame carries its position: the low four bits as the grey level of the top half, the rest in the
+	// bottom half, in steps of 16 that survive the JPEG compression
+	private String stampedVideo() {
+		File file = new File(directory, "stamped.avi");
+		VideoWriter writer = new VideoWriter(file.getPath(), VideoWriter.fourcc('M', 'J', 'P', 'G'), 30.0,
+				new Size(WIDTH, HEIGHT));
+		assertTrue(writer.isOpened());
+		Mat frame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3);
+		try {
+			for (int i = 0; i < FRAMES; i++) {
+				frame.submat(new Rect(0, 0, WIDTH, HEIGHT / 2)).setTo(new Scalar(grey(i % 16)));
+				frame.submat(new Rect(0, HEIGHT / 2, WIDTH, HEIGHT / 2)).setTo(new Scalar(grey(i / 16)));
+				writer.write(frame);
+			}
+		} finally {
+			frame.release();
+			writer.release();
+		}
+		return file.getPath();
+	}
+
+	private static double grey(int nibble) {
+		return nibble * 16 + 8;
+	}
+
+	private static long stamp(Mat frame) {
+		int low = (int) Core.mean(frame.submat(new Rect(0, 4, WIDTH, HEIGHT / 2 - 8))).val[0] / 16;
+		int high = (int) Core.mean(frame.submat(new Rect(0, HEIGHT / 2 + 4, WIDTH, HEIGHT / 2 - 8))).val[0] / 16;
+		return high * 16L + low;
+	}
+}
@@ -0,0 +1,54 @@
+package com.video;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ThumbnailCacheTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void thumbnailsAreDownscaledAndPackedInAFewKilobytes() {
+		ThumbnailCache thumbnails = new ThumbnailCache();
+		for (int i = 0; i < 200; i += 2) {
+			thumbnails.put(i, new BufferedImage(1920, 1080, BufferedImage.TYPE_3BYTE_BGR));
+		}
+		assertTrue(thumbnails.contains(198));
+		assertFalse(thumbnails.contains(199));
+		assertNull(thumbnails.get(1));
+		BufferedImage thumbnail = thumbnails.get(0);
+		assertEquals(ThumbnailCache.MAX_EDGE, thumbnail.getWidth());
+		assertEquals(90, thumbnail.getHeight());
+		assertTrue(thumbnails.byteSize() < 100 * 4 * 1024, "Bytes: " + thumbnails.byteSize());
+	}
+
+	@Test
+	void savedThumbnailsOnlyLoadForTheSameVideoAndSampler() throws IOException {
+		File video = Files.write(directory.resolve("video.mp4"), new byte[] { 1, 2, 3 }).toFile();
+		File file = directory.resolve("video.mp4.thumbs").toFile();
+		ThumbnailCache thumbnails = new ThumbnailCache();
+		thumbnails.put(0, new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR));
+		thumbnails.put(2, new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR));
+		thumbnails.save(file, video, "FRAMES_PER_MINUTE(60.0)", 3);
+
+		ThumbnailCache loaded = ThumbnailCache.load(file, video, "FRAMES_PER_MINUTE(60.0)");
+		assertNotNull(loaded);
+		assertEquals(thumbnails.byteSize(), loaded.byteSize());
+		assertFalse(loaded.contains(1));
+		assertEquals(120, loaded.get(2).getHeight());
+		assertNull(ThumbnailCache.load(file, video, "FRAMES_PER_MINUTE(30.0)"));
+	}
+}